@@ -0,0 +1,96 @@
+package com.endponts.jimfs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the {@link Directory} lookups over differently shaped trees.
+ * @author mw
+ * @version 0.9
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class DirectoryBenchmark {
+
+    /**
+     * The shape of the benchmarked tree.
+     */
+    @Param({"WIDE", "DEEP", "BALANCED"})
+    private TreeShape shape;
+    /**
+     * The number of directories in the benchmarked tree.
+     */
+    @Param({"1000", "100000", "1000000", "10000000"})
+    private int nodes;
+    /**
+     * Whether the tree indexes directories by name.
+     */
+    @Param({"false", "true"})
+    private boolean indexNames;
+
+    private Directory root;
+    private Directory parent;
+    private String childName;
+
+    /**
+     * Builds the tree once per trial.
+     */
+    @Setup(Level.Trial)
+    public void setUpTree() {
+        final FileSystem fileSystem;
+        fileSystem = new FileSystem(false, NameValidator.DEFAULT, false, indexNames);
+        final String[] dirNames = shape.populate(fileSystem, nodes).split("/");
+        final String[] parentNames = new String[dirNames.length - 1];
+        System.arraycopy(dirNames, 0, parentNames, 0, parentNames.length);
+
+        root = fileSystem.findDirectory(new String[0]).get();
+        parent = fileSystem.findDirectory(parentNames).get();
+        childName = dirNames[dirNames.length - 1];
+    }
+
+    /**
+     * Looks up an existing immediate child.
+     * @return the child found.
+     */
+    @Benchmark
+    public FileSystemItem findChild() {
+        return parent.findChild(childName);
+    }
+
+    /**
+     * Looks up a missing immediate child.
+     * @return null as the child does not exist.
+     */
+    @Benchmark
+    public FileSystemItem findChildMissing() {
+        return parent.findChild("missing");
+    }
+
+    /**
+     * Searches the whole tree for the last directory created.
+     * @return the directory found.
+     */
+    @Benchmark
+    public FileSystemItem findDescendantByName() {
+        return root.findDescendantByName(childName);
+    }
+
+    /**
+     * Searches the whole tree for a directory that does not exist.
+     * @return null as the directory does not exist.
+     */
+    @Benchmark
+    public FileSystemItem findDescendantByNameMissing() {
+        return root.findDescendantByName("missing");
+    }
+}
@@ -0,0 +1,124 @@
+package com.endponts.jimfs;
+
+import io.vavr.control.Either;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the {@link FileSystem} operations over differently shaped
+ * trees. The mutating benchmarks work in a scratch directory below the
+ * deepest directory of the tree which is reset before every iteration.
+ * @author mw
+ * @version 0.9
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class FileSystemBenchmark {
+
+    /**
+     * The shape of the benchmarked tree.
+     */
+    @Param({"WIDE", "DEEP", "BALANCED"})
+    private TreeShape shape;
+    /**
+     * The number of directories in the benchmarked tree.
+     */
+    @Param({"1000", "100000", "1000000", "10000000"})
+    private int nodes;
+    /**
+     * Whether the file system indexes whole paths.
+     */
+    @Param({"false", "true"})
+    private boolean indexPaths;
+
+    private FileSystem fileSystem;
+    private String scratch;
+    private String tmp;
+    private String left;
+    private String right;
+    private String movedFromLeft;
+    private String movedFromRight;
+    private long counter;
+
+    /**
+     * Builds the tree once per trial.
+     */
+    @Setup(Level.Trial)
+    public void setUpTree() {
+        fileSystem = new FileSystem(false, NameValidator.DEFAULT, indexPaths);
+        scratch = shape.populate(fileSystem, nodes) + "/scratch";
+        tmp = scratch + "/tmp";
+        left = scratch + "/left";
+        right = scratch + "/right";
+        movedFromLeft = left + "/moved";
+        movedFromRight = right + "/moved";
+    }
+
+    /**
+     * Resets the scratch directory so iterations do not grow the tree.
+     */
+    @Setup(Level.Iteration)
+    public void setUpScratch() {
+        fileSystem.rm(scratch);
+        fileSystem.mkdir(movedFromLeft);
+        fileSystem.mkdir(right);
+        counter = 0;
+    }
+
+    /**
+     * Creates a new directory at the bottom of the tree.
+     * @return the mkdir result.
+     */
+    @Benchmark
+    public Either<Exception, Boolean> mkdir() {
+        return fileSystem.mkdir(scratch + "/d" + counter++);
+    }
+
+    /**
+     * Creates and removes a directory at the bottom of the tree.
+     * @return the rm result.
+     */
+    @Benchmark
+    public Either<Exception, Boolean> mkdirThenRm() {
+        fileSystem.mkdir(tmp);
+        return fileSystem.rm(tmp);
+    }
+
+    /**
+     * Moves a directory at the bottom of the tree back and forth.
+     * @return the result of the second move.
+     */
+    @Benchmark
+    public Either<Exception, Boolean> mvRoundTrip() {
+        fileSystem.mv(movedFromLeft, right);
+        return fileSystem.mv(movedFromRight, left);
+    }
+
+    /**
+     * Lists the whole tree.
+     * @return the formatted listing.
+     */
+    @Benchmark
+    public String ls() {
+        return fileSystem.ls();
+    }
+
+    /**
+     * Lists the whole tree on the common fork-join pool.
+     * @return the formatted listing.
+     */
+    @Benchmark
+    public String lsParallel() {
+        return fileSystem.lsParallel();
+    }
+}
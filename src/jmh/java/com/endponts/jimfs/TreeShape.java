@@ -0,0 +1,113 @@
+package com.endponts.jimfs;
+
+/**
+ * The tree shapes the benchmarks are run against.
+ * @author mw
+ * @version 0.9
+ */
+public enum TreeShape {
+
+    /**
+     * Every directory is an immediate child of the root.
+     */
+    WIDE,
+    /**
+     * Chains of {@link #CHAIN_LENGTH} directories hanging off the root.
+     */
+    DEEP,
+    /**
+     * A complete tree with a fan-out of {@link #FAN_OUT}.
+     */
+    BALANCED;
+
+    /**
+     * The length of the directory chains of a {@link #DEEP} tree.
+     */
+    static final int CHAIN_LENGTH = 1000;
+    /**
+     * The number of children per directory of a {@link #BALANCED} tree.
+     */
+    static final int FAN_OUT = 10;
+
+    /**
+     * Populates a file system with a tree of this shape. Every directory
+     * name is unique across the tree.
+     * @param fileSystem the file system to populate.
+     * @param nodes the number of directories to create.
+     * @return the path of the last directory created, which is also one of
+     * the deepest.
+     */
+    public String populate(final FileSystem fileSystem, final int nodes) {
+        switch (this) {
+            case WIDE:
+                return populateWide(fileSystem, nodes);
+            case DEEP:
+                return populateDeep(fileSystem, nodes);
+            default:
+                return populateBalanced(fileSystem, nodes);
+        }
+    }
+
+    private static String populateWide(final FileSystem fileSystem,
+                                       final int nodes) {
+        String last = "";
+        for (int i = 0; i < nodes; i++) {
+            last = "n" + i;
+            fileSystem.mkdir(last);
+        }
+        return last;
+    }
+
+    private static String populateDeep(final FileSystem fileSystem,
+                                       final int nodes) {
+        String last = "";
+        int remaining = nodes;
+        for (int chain = 0; remaining > 0; chain++) {
+            final int length = Math.min(CHAIN_LENGTH, remaining);
+            final StringBuilder path = new StringBuilder();
+            for (int i = 0; i < length; i++) {
+                if (i > 0) {
+                    path.append('/');
+                }
+                path.append('c').append(chain).append('n').append(i);
+            }
+            last = path.toString();
+            fileSystem.mkdir(last);
+            remaining -= length;
+        }
+        return last;
+    }
+
+    private static String populateBalanced(final FileSystem fileSystem,
+                                           final int nodes) {
+        // nodes are numbered breadth first from 1, the root being 0, so
+        // every parent exists before its children are created
+        String last = "";
+        for (int i = 1; i <= nodes; i++) {
+            last = balancedPath(i);
+            fileSystem.mkdir(last);
+        }
+        return last;
+    }
+
+    private static String balancedPath(final int node) {
+        int depth = 0;
+        for (int i = node; i > 0; i = (i - 1) / FAN_OUT) {
+            depth++;
+        }
+
+        final int[] ancestry = new int[depth];
+        for (int i = node; i > 0; i = (i - 1) / FAN_OUT) {
+            ancestry[--depth] = i;
+        }
+
+        final StringBuilder path = new StringBuilder();
+        for (int i = 0; i < ancestry.length; i++) {
+            if (i > 0) {
+                path.append('/');
+            }
+            path.append('n').append(ancestry[i]);
+        }
+        return path.toString();
+    }
+}
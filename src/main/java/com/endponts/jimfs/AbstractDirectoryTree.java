@@ -0,0 +1,175 @@
+package com.endponts.jimfs;
+
+/**
+ * The directory name validation and error reporting shared by the
+ * {@link DirectoryTree} implementations.
+ * @author mw
+ * @version 0.9
+ */
+public abstract class AbstractDirectoryTree implements DirectoryTree {
+
+    /**
+     * The validator of the File System item names.
+     */
+    private final NameValidator nameValidator;
+
+    /**
+     * Constructs a tree rejecting the default invalid characters.
+     */
+    protected AbstractDirectoryTree() {
+        this(NameValidator.DEFAULT);
+    }
+
+    /**
+     * Constructs a tree.
+     * @param nameValidator the validator of the directory names.
+     */
+    protected AbstractDirectoryTree(final NameValidator nameValidator) {
+        this.nameValidator = nameValidator;
+    }
+
+    /**
+     * Creates the error of a path with invalid directory names.
+     * @param path the path that was validated.
+     * @param invDirNames the invalid directory names of the path.
+     * @return the error.
+     */
+    protected static FsError invalidNamesError(final String path,
+                                               final String[] invDirNames) {
+        return new FsError(FsError.Code.INVALID_NAMES, path, invDirNames, null);
+    }
+
+    /**
+     * Creates the error of a directory missing from a path.
+     * @param dirName the name of the missing directory.
+     * @return the error.
+     */
+    protected static FsError notFoundError(final String dirName) {
+        return new FsError(FsError.Code.NOT_FOUND, dirName, null, null);
+    }
+
+    /**
+     * Creates the error of a directory that already exists.
+     * @param dirName the name of the directory.
+     * @return the error.
+     */
+    protected static FsError alreadyExistsError(final String dirName) {
+        return new FsError(FsError.Code.ALREADY_EXISTS, dirName, null, null);
+    }
+
+    /**
+     * Creates the error of a failed move.
+     * @param srcPath the path of the directory that was to be moved.
+     * @param destPath the path of the directory that was to receive it.
+     * @param reason why the move failed: a message or the error whose
+     *               message it is.
+     * @return the error.
+     */
+    protected static FsError moveError(final String srcPath,
+                                       final String destPath,
+                                       final Object reason) {
+        return new FsError(FsError.Code.MOVE_FAILED, srcPath, destPath, reason);
+    }
+
+    /**
+     * Creates the error of a failed copy.
+     * @param srcPath the path of the directory that was to be copied.
+     * @param destPath the path of the directory that was to receive it.
+     * @param reason why the copy failed: a message or the error whose
+     *               message it is.
+     * @return the error.
+     */
+    protected static FsError copyError(final String srcPath,
+                                       final String destPath,
+                                       final Object reason) {
+        return new FsError(FsError.Code.COPY_FAILED, srcPath, destPath, reason);
+    }
+
+    /**
+     * Creates the error of a failed deletion.
+     * @param path the path of the directory that was to be deleted.
+     * @param reason why the deletion failed: a message or the error whose
+     *               message it is.
+     * @return the error.
+     */
+    protected static FsError deleteError(final Object path,
+                                         final Object reason) {
+        return new FsError(FsError.Code.DELETE_FAILED, path, null, reason);
+    }
+
+    /**
+     * Validates the paths of a move before any directory is looked up.
+     * @param srcPath of the directory that will be moved.
+     * @param destPath of the directory that will receive the source.
+     * @param srcDirNames the directory names of the source path.
+     * @param dstDirNames the directory names of the destination path.
+     * @return the error if the move is invalid and null otherwise.
+     */
+    protected static FsError checkMovePaths(
+            final String srcPath,
+            final String destPath,
+            final String[] srcDirNames,
+            final String[] dstDirNames) {
+        if (srcPath.equals(destPath)) {
+            final String reason = "source and destination is the same";
+            return moveError(srcPath, destPath, reason);
+        }
+
+        if (srcDirNames.length <= 0) {
+            final String reason = "no source directory provided";
+            return moveError(srcPath, destPath, reason);
+        }
+
+        if (dstDirNames.length <= 0) {
+            final String reason = "no destination directory provided";
+            return moveError(srcPath, destPath, reason);
+        }
+
+        return null;
+    }
+
+    /**
+     * Creates the error of a deletion without a directory name.
+     * @return the error.
+     */
+    protected static FsError nameRequiredError() {
+        return FsError.NAME_REQUIRED;
+    }
+
+    protected final String getLevelIndentation(final int level,
+                                               final String value) {
+        final StringBuilder indent = new StringBuilder();
+        for (int i = 0; i < level; i++) {
+            indent.append(value);
+        }
+
+        return indent.toString();
+    }
+
+    protected final String[] getInvalidDirectoryNames(final String[] dns) {
+        return nameValidator.getInvalidNames(dns);
+    }
+
+    protected final boolean hasInvalidCharacters(final String dn,
+                                                 final String ... s) {
+        return !hasNoInvalidCharacters(dn, s);
+    }
+
+    protected final boolean hasNoInvalidCharacters(final String dn,
+                                                   final String ... s) {
+        for (String invalid : s) {
+            if (dn.contains(invalid)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected final String[] getDirInvalidChars() {
+        return nameValidator.getInvalidChars();
+    }
+
+    protected final NameValidator getNameValidator() {
+        return nameValidator;
+    }
+}
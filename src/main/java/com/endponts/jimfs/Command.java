@@ -0,0 +1,114 @@
+package com.endponts.jimfs;
+
+/**
+ * A file system mutation that can be applied as part of a batch, see
+ * {@link FileSystem#apply(java.util.List)}.
+ * @author mw
+ * @version 0.9
+ */
+public final class Command {
+
+    /**
+     * The kinds of commands.
+     */
+    public enum Type {
+        /**
+         * Creates a directory, see {@link FileSystem#mkdir(String)}.
+         */
+        CREATE,
+        /**
+         * Deletes a directory, see {@link FileSystem#rm(String)}.
+         */
+        DELETE,
+        /**
+         * Moves a directory, see {@link FileSystem#mv(String, String)}.
+         */
+        MOVE,
+        /**
+         * Copies a directory, see {@link FileSystem#cp(String, String)}.
+         */
+        COPY
+    }
+
+    /**
+     * The kind of command.
+     */
+    private final Type type;
+    /**
+     * The path the command applies to.
+     */
+    private final String path;
+    /**
+     * The destination path of a move or copy, null otherwise.
+     */
+    private final String destPath;
+
+    private Command(final Type t, final String p, final String d) {
+        this.type = t;
+        this.path = p;
+        this.destPath = d;
+    }
+
+    /**
+     * Creates a command creating a directory.
+     * @param path of the directory.
+     * @return the command.
+     */
+    public static Command create(final String path) {
+        return new Command(Type.CREATE, path, null);
+    }
+
+    /**
+     * Creates a command deleting a directory.
+     * @param path of the directory.
+     * @return the command.
+     */
+    public static Command delete(final String path) {
+        return new Command(Type.DELETE, path, null);
+    }
+
+    /**
+     * Creates a command moving a directory.
+     * @param srcPath of the directory that will be moved.
+     * @param destPath of the directory that will receive it.
+     * @return the command.
+     */
+    public static Command move(final String srcPath, final String destPath) {
+        return new Command(Type.MOVE, srcPath, destPath);
+    }
+
+    /**
+     * Creates a command copying a directory.
+     * @param srcPath of the directory that will be copied.
+     * @param destPath of the directory that will receive the copy.
+     * @return the command.
+     */
+    public static Command copy(final String srcPath, final String destPath) {
+        return new Command(Type.COPY, srcPath, destPath);
+    }
+
+    /**
+     * Retrieves the kind of command.
+     * @return the kind of command.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Retrieves the path the command applies to, the source path of a move
+     * or copy.
+     * @return the path.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Retrieves the destination path of a move or copy.
+     * @return the destination path or null if the command is neither.
+     */
+    public String getDestPath() {
+        return destPath;
+    }
+}
@@ -0,0 +1,313 @@
+package com.endponts.jimfs;
+
+import io.vavr.control.Either;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+
+/**
+ * Parses and evaluates REPL command lines. The command and its value are
+ * kept as ranges of the line rather than split into strings, keywords are
+ * matched in place ignoring case and responses are appended to the output
+ * given, so a command only allocates the paths it passes to the tree.
+ *
+ * <p>A parser is reusable but not thread-safe: {@link #parse(CharSequence)}
+ * replaces the command evaluated by {@link #execute(DirectoryTree,
+ * Appendable)}.</p>
+ * @author mw
+ * @version 0.9
+ */
+public final class CommandParser {
+
+    /**
+     * The commands of the REPL.
+     */
+    public enum Type {
+        /**
+         * CREATE path.
+         */
+        CREATE,
+        /**
+         * DELETE path.
+         */
+        DELETE,
+        /**
+         * MOVE src dest.
+         */
+        MOVE,
+        /**
+         * COPY src dest.
+         */
+        COPY,
+        /**
+         * LIST [path] [--depth N] [--match glob].
+         */
+        LIST,
+        /**
+         * HELP.
+         */
+        HELP,
+        /**
+         * QUIT or EXIT.
+         */
+        QUIT,
+        /**
+         * Anything else.
+         */
+        UNKNOWN
+    }
+
+    /**
+     * The capacity above which the response buffer of {@link #eval} is
+     * released after use rather than kept.
+     */
+    private static final int MAX_RETAINED_RESPONSE = 1 << 16;
+
+    /**
+     * The line parsed.
+     */
+    private CharSequence line = "";
+    /**
+     * The command of the line.
+     */
+    private Type type = Type.UNKNOWN;
+    /**
+     * The range of the command in the line.
+     */
+    private int commandStart;
+    private int commandEnd;
+    /**
+     * The range of the value in the line, everything after the space
+     * that follows the command.
+     */
+    private int valueStart;
+    private int valueEnd;
+    /**
+     * The response buffer of {@link #eval}.
+     */
+    private StringBuilder response = new StringBuilder();
+
+    /**
+     * Parses a command line: the command is everything up to the first
+     * space of the stripped line and the value everything after it.
+     * @param input the command line.
+     * @return the command.
+     */
+    public Type parse(final CharSequence input) {
+        line = input;
+        int begin = 0;
+        int end = input.length();
+        while (begin < end && Character.isWhitespace(input.charAt(begin))) {
+            begin++;
+        }
+        while (end > begin && Character.isWhitespace(input.charAt(end - 1))) {
+            end--;
+        }
+
+        int space = begin;
+        while (space < end && input.charAt(space) != ' ') {
+            space++;
+        }
+        commandStart = begin;
+        commandEnd = space;
+        valueStart = space == end ? end : space + 1;
+        valueEnd = end;
+
+        if (isCommand("CREATE")) {
+            type = Type.CREATE;
+        } else if (isCommand("DELETE")) {
+            type = Type.DELETE;
+        } else if (isCommand("MOVE")) {
+            type = Type.MOVE;
+        } else if (isCommand("COPY")) {
+            type = Type.COPY;
+        } else if (isCommand("LIST")) {
+            type = Type.LIST;
+        } else if (isCommand("HELP")) {
+            type = Type.HELP;
+        } else if (isCommand("QUIT") || isCommand("EXIT")) {
+            type = Type.QUIT;
+        } else {
+            type = Type.UNKNOWN;
+        }
+        return type;
+    }
+
+    /**
+     * Retrieves the value of the command parsed.
+     * @return the value, empty if there is none.
+     */
+    public String getValue() {
+        return line.subSequence(valueStart, valueEnd).toString();
+    }
+
+    /**
+     * Evaluates the command parsed and appends its response, without a
+     * line separator. A LIST of the whole tree is streamed to the output.
+     * @param fileSystem the file system the command is evaluated against.
+     * @param out the output the response is appended to.
+     * @throws IOException if writing to the output fails.
+     * @throws RuntimeException with the message QUIT for QUIT and EXIT.
+     */
+    public void execute(final DirectoryTree fileSystem, final Appendable out)
+            throws IOException {
+        switch (type) {
+            case CREATE:
+                respond("CREATE ", fileSystem.mkdir(getValue()), out);
+                break;
+            case DELETE:
+                respond("DELETE ", fileSystem.rm(getValue()), out);
+                break;
+            case MOVE:
+            case COPY:
+                transfer(fileSystem, out);
+                break;
+            case LIST:
+                if (valueStart < valueEnd) {
+                    out.append(FileSystemRepl.listSubtree(getValue(), fileSystem));
+                } else {
+                    out.append("LIST");
+                    if (!fileSystem.isEmpty()) {
+                        out.append('\n');
+                        fileSystem.ls(out);
+                    }
+                }
+                break;
+            case HELP:
+                out.append(FileSystemRepl.getHelpInfo());
+                break;
+            case QUIT:
+                throw new RuntimeException("QUIT");
+            default:
+                out.append("Unknown command: ").append(line
+                        .subSequence(commandStart, commandEnd)
+                        .toString().toUpperCase());
+                break;
+        }
+    }
+
+    /**
+     * Evaluates the command parsed like {@link #execute(DirectoryTree,
+     * Appendable)}, except that the listing of a LIST of the whole tree is
+     * not appended but returned, for the caller to append a part at a time
+     * as its output takes them.
+     * @param fileSystem the file system the command is evaluated against.
+     * @param out the output the response is appended to.
+     * @return the parts of the listing still to append, null if the
+     * response appended is complete.
+     * @throws IOException if writing to the output fails.
+     * @throws RuntimeException with the message QUIT for QUIT and EXIT.
+     */
+    public Iterator<String> executeLazily(final DirectoryTree fileSystem,
+                                          final Appendable out)
+            throws IOException {
+        if (type != Type.LIST || valueStart < valueEnd) {
+            execute(fileSystem, out);
+            return null;
+        }
+        out.append("LIST");
+        if (fileSystem.isEmpty()) {
+            return null;
+        }
+        out.append('\n');
+        return fileSystem.lsParts();
+    }
+
+    /**
+     * Parses and evaluates a command line.
+     * @param input the command line.
+     * @param fileSystem the file system the command is evaluated against.
+     * @return the response.
+     * @throws RuntimeException with the message QUIT for QUIT and EXIT.
+     */
+    public String eval(final CharSequence input,
+                       final DirectoryTree fileSystem) {
+        parse(input);
+        response.setLength(0);
+        try {
+            execute(fileSystem, response);
+            return response.toString();
+        } catch (IOException e) {
+            // appending to a StringBuilder never fails
+            throw new UncheckedIOException(e);
+        } finally {
+            if (response.capacity() > MAX_RETAINED_RESPONSE) {
+                response = new StringBuilder();
+            }
+        }
+    }
+
+    /**
+     * Evaluates a MOVE or COPY: the source is the first word of the
+     * stripped value and the destination the second, empty if missing.
+     * @param fileSystem the file system the command is evaluated against.
+     * @param out the output the response is appended to.
+     * @throws IOException if writing to the output fails.
+     */
+    private void transfer(final DirectoryTree fileSystem,
+                          final Appendable out)
+            throws IOException {
+        int begin = valueStart;
+        int end = valueEnd;
+        while (begin < end && Character.isWhitespace(line.charAt(begin))) {
+            begin++;
+        }
+        while (end > begin && Character.isWhitespace(line.charAt(end - 1))) {
+            end--;
+        }
+        int srcEnd = begin;
+        while (srcEnd < end && line.charAt(srcEnd) != ' ') {
+            srcEnd++;
+        }
+        int destEnd = Math.min(srcEnd + 1, end);
+        while (destEnd < end && line.charAt(destEnd) != ' ') {
+            destEnd++;
+        }
+
+        final String src = line.subSequence(begin, srcEnd).toString();
+        final String dest = srcEnd < end
+                ? line.subSequence(srcEnd + 1, destEnd).toString() : "";
+        if (type == Type.MOVE) {
+            respond("MOVE ", fileSystem.mv(src, dest), out);
+        } else {
+            respond("COPY ", fileSystem.cp(src, dest), out);
+        }
+    }
+
+    /**
+     * Appends the response to a command: its error message if it failed,
+     * otherwise the command and its value.
+     * @param command the command and a space.
+     * @param result the result of the command.
+     * @param out the output the response is appended to.
+     * @throws IOException if writing to the output fails.
+     */
+    private void respond(final String command,
+                         final Either<Exception, Boolean> result,
+                         final Appendable out) throws IOException {
+        if (result.isLeft()) {
+            out.append(result.getLeft().getMessage());
+        } else {
+            out.append(command).append(line, valueStart, valueEnd);
+        }
+    }
+
+    /**
+     * Matches the command of the line, ignoring case.
+     * @param keyword the upper-case keyword.
+     * @return true if the command is the keyword and false otherwise.
+     */
+    private boolean isCommand(final String keyword) {
+        if (commandEnd - commandStart != keyword.length()) {
+            return false;
+        }
+        for (int i = 0; i < keyword.length(); i++) {
+            final char c = line.charAt(commandStart + i);
+            if (Character.toUpperCase(c) != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,680 @@
+package com.endponts.jimfs;
+
+import io.vavr.control.Either;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A {@link DirectoryTree} that keeps its directories in primitive arrays
+ * rather than as {@link Directory} objects, for trees too large for the
+ * heap otherwise. A directory is an index into parallel arrays holding its
+ * parent, first child, next and previous siblings and the place of its
+ * name in a shared character arena. Children are found through one open
+ * addressing table keyed by parent and folded name, and are sorted by
+ * name only when listed.
+ *
+ * <p>A directory takes about 44 bytes plus two bytes per name character,
+ * against well over 150 bytes for a {@link FileSystem} directory, and
+ * the whole tree is a handful of arrays for the garbage collector to
+ * trace. The indexes and arena space of deleted directories are reused.
+ * The tree is not safe to share between threads.</p>
+ * @author mw
+ * @version 0.9
+ */
+public final class CompactFileSystem extends AbstractDirectoryTree {
+
+    /**
+     * The result of a successful mutation.
+     */
+    private static final Either<Exception, Boolean> SUCCESS = Either.right(true);
+    /**
+     * The index of the root directory.
+     */
+    private static final int ROOT = 0;
+    /**
+     * The index of no directory.
+     */
+    private static final int NONE = -1;
+    /**
+     * The parent of a deleted directory whose index may be reused.
+     */
+    private static final int FREE = -2;
+    /**
+     * The initial number of directories and hash table slots.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The parent of each directory, {@link #NONE} for the root.
+     */
+    private int[] parents;
+    /**
+     * The first child of each directory.
+     */
+    private int[] firstChildren;
+    /**
+     * The next sibling of each directory, or the next free index.
+     */
+    private int[] nextSiblings;
+    /**
+     * The previous sibling of each directory.
+     */
+    private int[] prevSiblings;
+    /**
+     * The offset of the name of each directory in the arena.
+     */
+    private int[] nameOffsets;
+    /**
+     * The length of the name of each directory.
+     */
+    private int[] nameLengths;
+    /**
+     * The offset of the folded name of each directory in the arena, the
+     * offset of its name when both are the same.
+     */
+    private int[] keyOffsets;
+    /**
+     * The length of the folded name of each directory.
+     */
+    private int[] keyLengths;
+    /**
+     * The hash code of the folded name of each directory.
+     */
+    private int[] keyHashes;
+    /**
+     * The number of indexes in use or free.
+     */
+    private int nodeCount;
+    /**
+     * The first free index, the next ones are linked by
+     * {@link #nextSiblings}.
+     */
+    private int freeList = NONE;
+
+    /**
+     * The names of the directories.
+     */
+    private char[] arena;
+    /**
+     * The number of arena characters in use or garbage.
+     */
+    private int arenaSize;
+    /**
+     * The number of arena characters of deleted directories.
+     */
+    private int arenaGarbage;
+
+    /**
+     * The hash table of the directories by parent and folded name, linearly
+     * probed, {@link #NONE} for an empty slot.
+     */
+    private int[] slots;
+    /**
+     * The number of occupied slots.
+     */
+    private int slotCount;
+
+    /**
+     * Construct a new CompactFileSystem with root directory.
+     */
+    public CompactFileSystem() {
+        this(NameValidator.DEFAULT);
+    }
+
+    /**
+     * Construct a new CompactFileSystem with root directory.
+     * @param nameValidator the validator of the directory names.
+     */
+    public CompactFileSystem(final NameValidator nameValidator) {
+        super(nameValidator);
+        parents = new int[INITIAL_CAPACITY];
+        firstChildren = new int[INITIAL_CAPACITY];
+        nextSiblings = new int[INITIAL_CAPACITY];
+        prevSiblings = new int[INITIAL_CAPACITY];
+        nameOffsets = new int[INITIAL_CAPACITY];
+        nameLengths = new int[INITIAL_CAPACITY];
+        keyOffsets = new int[INITIAL_CAPACITY];
+        keyLengths = new int[INITIAL_CAPACITY];
+        keyHashes = new int[INITIAL_CAPACITY];
+        arena = new char[INITIAL_CAPACITY * 8];
+        slots = new int[INITIAL_CAPACITY * 2];
+        Arrays.fill(slots, NONE);
+
+        nodeCount = 1;
+        parents[ROOT] = NONE;
+        firstChildren[ROOT] = NONE;
+    }
+
+    /**
+     * Creates a new directory in the location specified. Does nothing if the
+     * directory already exist.
+     * @param path of the directory.
+     * @return either an error or a boolean confirming the creation.
+     */
+    @Override
+    public Either<Exception, Boolean> mkdir(final String path) {
+        final JimPath jimPath = JimPath.of(path);
+        final String[] invDirNames = jimPath.getInvalidDirectoryNames(this);
+        if (invDirNames.length > 0 || jimPath.isEmpty()) {
+            return Either.left(invalidNamesError(path, invDirNames));
+        }
+
+        int current = ROOT;
+        for (int i = 0; i < jimPath.length(); i++) {
+            final String key = jimPath.getKey(i);
+            int child = findChild(current, key);
+            if (child == NONE) {
+                child = allocate(current, jimPath.getName(i), key);
+            }
+            current = child;
+        }
+        return SUCCESS;
+    }
+
+    /**
+     * Move a directory from one path to another.
+     * @param srcPath of the directory that will be moved
+     * @param destPath of the directory that will receive the source directory
+     * @return either an error or a boolean confirming the move.
+     */
+    @Override
+    public Either<Exception, Boolean> mv(final String srcPath,
+                                         final String destPath) {
+        final JimPath src = JimPath.of(srcPath);
+        final JimPath dest = JimPath.of(destPath);
+        final Exception pathsError;
+        pathsError = checkMovePaths(srcPath, destPath,
+                src.getDirNames(), dest.getDirNames());
+        if (pathsError != null) {
+            return Either.left(pathsError);
+        }
+
+        final Either<Exception, Integer> srcEither = findDirectory(src);
+        if (srcEither.isLeft()) {
+            return Either.left(moveError(srcPath, destPath, srcEither.getLeft()));
+        }
+        final Either<Exception, Integer> destEither = findDirectory(dest);
+        if (destEither.isLeft()) {
+            return Either.left(moveError(srcPath, destPath, destEither.getLeft()));
+        }
+
+        final int srcNode = srcEither.get();
+        final int destNode = destEither.get();
+        for (int n = destNode; n != NONE; n = parents[n]) {
+            if (n == srcNode) {
+                final String reason = "destination is inside the source";
+                return Either.left(moveError(srcPath, destPath, reason));
+            }
+        }
+
+        final int existing = findChild(destNode, srcNode);
+        if (existing == srcNode) {
+            return SUCCESS;
+        } else if (existing != NONE) {
+            final FsError reason = alreadyExistsError(name(srcNode));
+            return Either.left(moveError(srcPath, destPath, reason));
+        }
+
+        unindex(srcNode);
+        unlink(srcNode);
+        parents[srcNode] = destNode;
+        link(srcNode);
+        index(srcNode);
+        return SUCCESS;
+    }
+
+    /**
+     * Remove/Delete a directory and its descendants.
+     * @param path of the directory to delete.
+     * @return either an error or a boolean confirming the deletion.
+     */
+    @Override
+    public Either<Exception, Boolean> rm(final String path) {
+        final JimPath jimPath = JimPath.of(path);
+        if (jimPath.length() <= 0) {
+            return Either.left(nameRequiredError());
+        }
+
+        final Either<Exception, Integer> dirEither = findDirectory(jimPath);
+        if (dirEither.isLeft()) {
+            return Either.left(deleteError(path, dirEither.getLeft()));
+        }
+
+        final int node = dirEither.get();
+        unlink(node);
+        // free the subtree bottom up, detaching each child as it is entered
+        int current = node;
+        while (true) {
+            final int child = firstChildren[current];
+            if (child != NONE) {
+                firstChildren[current] = nextSiblings[child];
+                current = child;
+                continue;
+            }
+
+            final int parent = parents[current];
+            free(current);
+            if (current == node) {
+                return SUCCESS;
+            }
+            current = parent;
+        }
+    }
+
+    /**
+     * List all directories of the tree.
+     * @return a formatted string of the directories.
+     */
+    @Override
+    public String ls() {
+        final StringBuilder sb = new StringBuilder();
+        try {
+            ls(sb);
+        } catch (IOException e) {
+            // appending to a StringBuilder never fails
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Streams all directories of the tree, formatted the same way as
+     * {@link #ls()}, depth first with the children of each directory
+     * sorted by name.
+     * @param out the output the listing is written to.
+     * @throws IOException if writing to the output fails.
+     */
+    @Override
+    public void ls(final Appendable out) throws IOException {
+        final List<String> indents = new ArrayList<>();
+        final List<int[]> levels = new ArrayList<>();
+        int[] positions = new int[INITIAL_CAPACITY];
+        levels.add(sortedChildren(ROOT));
+        int level = 0;
+        while (level >= 0) {
+            final int[] children = levels.get(level);
+            if (positions[level] == children.length) {
+                level--;
+                continue;
+            }
+
+            final int node = children[positions[level]++];
+            while (indents.size() <= level) {
+                indents.add(getLevelIndentation(indents.size(), "  "));
+            }
+            out.append(indents.get(level));
+            appendName(out, node);
+            out.append('\n');
+
+            if (firstChildren[node] != NONE) {
+                level++;
+                if (level == positions.length) {
+                    positions = Arrays.copyOf(positions, level * 2);
+                }
+                positions[level] = 0;
+                if (level == levels.size()) {
+                    levels.add(null);
+                }
+                levels.set(level, sortedChildren(node));
+            }
+        }
+    }
+
+    /**
+     * Indicates whether the root has any directories.
+     * @return true if the tree is empty and false otherwise.
+     */
+    @Override
+    public boolean isEmpty() {
+        return firstChildren[ROOT] == NONE;
+    }
+
+    private Either<Exception, Integer> findDirectory(final JimPath path) {
+        int current = ROOT;
+        for (int i = 0; i < path.length(); i++) {
+            current = findChild(current, path.getKey(i));
+            if (current == NONE) {
+                return Either.left(notFoundError(path.getName(i)));
+            }
+        }
+        return Either.right(current);
+    }
+
+    /**
+     * Finds a child by its folded name.
+     * @param parent the parent directory.
+     * @param key the folded name.
+     * @return the child or {@link #NONE}.
+     */
+    private int findChild(final int parent, final String key) {
+        final int mask = slots.length - 1;
+        for (int i = slot(parent, key.hashCode()) & mask; ; i = (i + 1) & mask) {
+            final int node = slots[i];
+            if (node == NONE) {
+                return NONE;
+            }
+            if (parents[node] == parent && keyEquals(node, key)) {
+                return node;
+            }
+        }
+    }
+
+    /**
+     * Finds the child with the same folded name as another directory.
+     * @param parent the parent directory.
+     * @param other the other directory.
+     * @return the child or {@link #NONE}.
+     */
+    private int findChild(final int parent, final int other) {
+        final int mask = slots.length - 1;
+        for (int i = slot(parent, keyHashes[other]) & mask; ; i = (i + 1) & mask) {
+            final int node = slots[i];
+            if (node == NONE) {
+                return NONE;
+            }
+            if (parents[node] == parent && keyEquals(node, other)) {
+                return node;
+            }
+        }
+    }
+
+    private boolean keyEquals(final int node, final String key) {
+        final int length = keyLengths[node];
+        if (length != key.length() || keyHashes[node] != key.hashCode()) {
+            return false;
+        }
+        final int offset = keyOffsets[node];
+        for (int i = 0; i < length; i++) {
+            if (arena[offset + i] != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean keyEquals(final int node, final int other) {
+        return keyHashes[node] == keyHashes[other]
+                && Arrays.equals(arena, keyOffsets[node],
+                        keyOffsets[node] + keyLengths[node],
+                        arena, keyOffsets[other],
+                        keyOffsets[other] + keyLengths[other]);
+    }
+
+    /**
+     * Spreads the hash of a parent and folded name over the table.
+     * @param parent the parent directory.
+     * @param keyHash the hash code of the folded name.
+     * @return the unmasked slot.
+     */
+    private static int slot(final int parent, final int keyHash) {
+        final int h = keyHash * 31 + parent;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Creates a directory and links it to its parent.
+     * @param parent the parent directory.
+     * @param name the name of the directory.
+     * @param key the folded name of the directory.
+     * @return the directory.
+     */
+    private int allocate(final int parent, final String name,
+                         final String key) {
+        final boolean sameKey = key.equals(name);
+        ensureArenaCapacity(name.length() + (sameKey ? 0 : key.length()));
+
+        final int node;
+        if (freeList != NONE) {
+            node = freeList;
+            freeList = nextSiblings[node];
+        } else {
+            ensureNodeCapacity();
+            node = nodeCount++;
+        }
+        nameOffsets[node] = store(name);
+        nameLengths[node] = name.length();
+        keyOffsets[node] = sameKey ? nameOffsets[node] : store(key);
+        keyLengths[node] = key.length();
+        keyHashes[node] = key.hashCode();
+        parents[node] = parent;
+        firstChildren[node] = NONE;
+        link(node);
+        index(node);
+        return node;
+    }
+
+    /**
+     * Releases a directory without children for reuse.
+     * @param node the directory.
+     */
+    private void free(final int node) {
+        unindex(node);
+        arenaGarbage += nameLengths[node];
+        if (keyOffsets[node] != nameOffsets[node]) {
+            arenaGarbage += keyLengths[node];
+        }
+        parents[node] = FREE;
+        nextSiblings[node] = freeList;
+        freeList = node;
+    }
+
+    /**
+     * Links a directory as the first child of its parent.
+     * @param node the directory.
+     */
+    private void link(final int node) {
+        final int parent = parents[node];
+        final int next = firstChildren[parent];
+        nextSiblings[node] = next;
+        prevSiblings[node] = NONE;
+        if (next != NONE) {
+            prevSiblings[next] = node;
+        }
+        firstChildren[parent] = node;
+    }
+
+    /**
+     * Unlinks a directory from the children of its parent.
+     * @param node the directory.
+     */
+    private void unlink(final int node) {
+        final int prev = prevSiblings[node];
+        final int next = nextSiblings[node];
+        if (prev != NONE) {
+            nextSiblings[prev] = next;
+        } else {
+            firstChildren[parents[node]] = next;
+        }
+        if (next != NONE) {
+            prevSiblings[next] = prev;
+        }
+    }
+
+    /**
+     * Adds a directory to the hash table.
+     * @param node the directory.
+     */
+    private void index(final int node) {
+        if ((slotCount + 1) * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        final int mask = slots.length - 1;
+        int i = slot(parents[node], keyHashes[node]) & mask;
+        while (slots[i] != NONE) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = node;
+        slotCount++;
+    }
+
+    /**
+     * Removes a directory from the hash table, shifting back the entries
+     * probed after it so that no lookup stops early.
+     * @param node the directory.
+     */
+    private void unindex(final int node) {
+        final int mask = slots.length - 1;
+        int hole = slot(parents[node], keyHashes[node]) & mask;
+        while (slots[hole] != node) {
+            hole = (hole + 1) & mask;
+        }
+        slots[hole] = NONE;
+        slotCount--;
+
+        for (int i = (hole + 1) & mask; slots[i] != NONE; i = (i + 1) & mask) {
+            final int moved = slots[i];
+            final int home = slot(parents[moved], keyHashes[moved]) & mask;
+            // move the entry unless its home lies cyclically in (hole, i]
+            final boolean reachable = hole <= i
+                    ? hole < home && home <= i
+                    : hole < home || home <= i;
+            if (!reachable) {
+                slots[hole] = moved;
+                slots[i] = NONE;
+                hole = i;
+            }
+        }
+    }
+
+    private void rehash(final int capacity) {
+        slots = new int[capacity];
+        Arrays.fill(slots, NONE);
+        slotCount = 0;
+        for (int node = ROOT + 1; node < nodeCount; node++) {
+            if (parents[node] != FREE) {
+                index(node);
+            }
+        }
+    }
+
+    private void ensureNodeCapacity() {
+        if (nodeCount < parents.length) {
+            return;
+        }
+        final int capacity = parents.length * 2;
+        parents = Arrays.copyOf(parents, capacity);
+        firstChildren = Arrays.copyOf(firstChildren, capacity);
+        nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        prevSiblings = Arrays.copyOf(prevSiblings, capacity);
+        nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+        nameLengths = Arrays.copyOf(nameLengths, capacity);
+        keyOffsets = Arrays.copyOf(keyOffsets, capacity);
+        keyLengths = Arrays.copyOf(keyLengths, capacity);
+        keyHashes = Arrays.copyOf(keyHashes, capacity);
+    }
+
+    /**
+     * Makes room in the arena, compacting it when at least half of it
+     * belongs to deleted directories.
+     * @param length the number of characters to store.
+     */
+    private void ensureArenaCapacity(final int length) {
+        if (arenaSize + length <= arena.length) {
+            return;
+        }
+
+        final int live = arenaSize - arenaGarbage;
+        final int capacity = Math.max(arena.length, (live + length) * 2);
+        if (arenaGarbage < arenaSize / 2) {
+            arena = Arrays.copyOf(arena, capacity);
+            return;
+        }
+
+        final char[] old = arena;
+        arena = new char[capacity];
+        arenaSize = 0;
+        arenaGarbage = 0;
+        for (int node = ROOT + 1; node < nodeCount; node++) {
+            if (parents[node] == FREE) {
+                continue;
+            }
+            final boolean sameKey = keyOffsets[node] == nameOffsets[node];
+            nameOffsets[node] = copy(old, nameOffsets[node], nameLengths[node]);
+            keyOffsets[node] = sameKey ? nameOffsets[node]
+                    : copy(old, keyOffsets[node], keyLengths[node]);
+        }
+    }
+
+    private int copy(final char[] from, final int offset, final int length) {
+        System.arraycopy(from, offset, arena, arenaSize, length);
+        arenaSize += length;
+        return arenaSize - length;
+    }
+
+    private int store(final String s) {
+        s.getChars(0, s.length(), arena, arenaSize);
+        arenaSize += s.length();
+        return arenaSize - s.length();
+    }
+
+    private String name(final int node) {
+        return new String(arena, nameOffsets[node], nameLengths[node]);
+    }
+
+    private void appendName(final Appendable out, final int node)
+            throws IOException {
+        final int offset = nameOffsets[node];
+        final int length = nameLengths[node];
+        if (out instanceof StringBuilder) {
+            ((StringBuilder) out).append(arena, offset, length);
+        } else if (out instanceof Writer) {
+            ((Writer) out).write(arena, offset, length);
+        } else {
+            out.append(CharBuffer.wrap(arena, offset, length));
+        }
+    }
+
+    /**
+     * Collects the children of a directory sorted by name, the order of
+     * {@link Directory#compareTo(Object)}.
+     * @param parent the directory.
+     * @return the children.
+     */
+    private int[] sortedChildren(final int parent) {
+        int count = 0;
+        for (int c = firstChildren[parent]; c != NONE; c = nextSiblings[c]) {
+            count++;
+        }
+        final int[] children = new int[count];
+        int i = 0;
+        for (int c = firstChildren[parent]; c != NONE; c = nextSiblings[c]) {
+            children[i++] = c;
+        }
+        if (count > 1) {
+            mergeSort(children, new int[count], 0, count);
+        }
+        return children;
+    }
+
+    private void mergeSort(final int[] a, final int[] tmp,
+                           final int from, final int to) {
+        if (to - from < 2) {
+            return;
+        }
+        final int mid = (from + to) >>> 1;
+        mergeSort(a, tmp, from, mid);
+        mergeSort(a, tmp, mid, to);
+        System.arraycopy(a, from, tmp, from, to - from);
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; i++) {
+            if (right == to
+                    || (left < mid && compareNames(tmp[left], tmp[right]) <= 0)) {
+                a[i] = tmp[left++];
+            } else {
+                a[i] = tmp[right++];
+            }
+        }
+    }
+
+    private int compareNames(final int a, final int b) {
+        return Arrays.compare(arena, nameOffsets[a], nameOffsets[a] + nameLengths[a],
+                arena, nameOffsets[b], nameOffsets[b] + nameLengths[b]);
+    }
+}
@@ -1,23 +1,153 @@
 package com.endponts.jimfs;
 
-import java.util.Objects;
-import java.util.Optional;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class Directory extends FileSystemItem {
 
     /**
      * Holds the directory descendants sorted by names.
      */
-    private final TreeSet<FileSystemItem> descendants;
+    private final NavigableSet<FileSystemItem> descendants;
+    /**
+     * Holds the directory descendants keyed by their case-folded names so
+     * that child lookups do not have to scan {@link #descendants}.
+     */
+    private final Map<String, FileSystemItem> descendantsByKey;
+    /**
+     * The name index of the tree shared by all its directories, null if the
+     * tree is not indexed.
+     */
+    private final NameIndex nameIndex;
+    /**
+     * The opening mark of the directory in the name index, null if it is
+     * not indexed. Guarded by the index.
+     */
+    private NameIndex.Mark indexMark;
+    /**
+     * The state shared by all directories of the tree.
+     */
+    private final Tree tree;
+    /**
+     * Incremented whenever a descendant at any level is added or removed,
+     * if the tree tracks changes.
+     */
+    private volatile long version;
+    /**
+     * The sizes of the subtree as of a version, null until they are first
+     * needed.
+     */
+    private volatile Sizes sizes;
+    /**
+     * The cached LIST output of the descendants, if any.
+     */
+    private volatile ListingCache listing;
+    /**
+     * The path index sequence number of the last move or deletion of this
+     * directory, 0 if it was never moved or deleted.
+     */
+    private volatile long unlinkedIn;
+    /**
+     * The directory this one is a copy of until its children are copied,
+     * null once they are, see {@link #copyTo(Directory)}.
+     */
+    private volatile Directory template;
+    /**
+     * The copies of this directory whose children are not copied yet,
+     * null if there are none. Replaced rather than changed, guarded by this
+     * directory, so that it can be read without locking.
+     */
+    private volatile Directory[] pendingCopies;
+
+    private static final AtomicLongFieldUpdater<Directory> VERSION =
+            AtomicLongFieldUpdater.newUpdater(Directory.class, "version");
 
     /**
+     * Constructs a directory that is safe to share between threads if its
+     * parent is.
      * @param n the name of the directory.
      * @param p a reference to the directory parent directory
      */
     public Directory(final String n, final Directory p) {
+        this(n, p, p != null && p.isConcurrent());
+    }
+
+    /**
+     * @param n the name of the directory.
+     * @param p a reference to the directory parent directory
+     * @param concurrent whether the descendants may be read while another
+     *                   thread adds or deletes them.
+     */
+    public Directory(final String n,
+                     final Directory p,
+                     final boolean concurrent) {
+        this(n, p, concurrent, p != null ? p.nameIndex : null);
+    }
+
+    /**
+     * @param n the name of the directory.
+     * @param p a reference to the directory parent directory
+     * @param concurrent whether the descendants may be read while another
+     *                   thread adds or deletes them.
+     * @param index the name index of the tree, null if it is not indexed.
+     */
+    Directory(final String n,
+              final Directory p,
+              final boolean concurrent,
+              final NameIndex index) {
+        this(n, p, concurrent, index,
+                p != null ? p.tree : new Tree(false, false));
+    }
+
+    /**
+     * @param n the name of the directory.
+     * @param p a reference to the directory parent directory
+     * @param concurrent whether the descendants may be read while another
+     *                   thread adds or deletes them.
+     * @param index the name index of the tree, null if it is not indexed.
+     * @param trackChanges whether the tree keeps versions, so that subtree
+     *                     sizes are recomputed only along changed paths.
+     */
+    Directory(final String n,
+              final Directory p,
+              final boolean concurrent,
+              final NameIndex index,
+              final boolean trackChanges) {
+        this(n, p, concurrent, index,
+                p != null ? p.tree : new Tree(trackChanges, false));
+    }
+
+    private Directory(final String n,
+                      final Directory p,
+                      final boolean concurrent,
+                      final NameIndex index,
+                      final Tree t) {
         super(n, p);
-        descendants = new TreeSet<>();
+        nameIndex = index;
+        tree = t;
+        if (concurrent) {
+            descendants = new ConcurrentSkipListSet<>();
+            descendantsByKey = new ConcurrentHashMap<>();
+        } else {
+            descendants = new TreeSet<>();
+            descendantsByKey = new HashMap<>();
+        }
     }
 
     /**
@@ -37,38 +167,79 @@ public class Directory extends FileSystemItem {
      * @return a FileSystemItem which in our use case is a directory.
      */
     public FileSystemItem findChild(final String name) {
-        final Optional<FileSystemItem> first = descendants
-                .stream()
-                .filter(fileSystemItem -> {
-                    return fileSystemItem.getName().equalsIgnoreCase(name);
-                })
-                .findFirst();
+        return readable().descendantsByKey.get(foldName(name));
+    }
 
-        return first.isEmpty() ? null : first.get();
+    /**
+     * Finds and return immediate child by its case-folded name, copying the
+     * children first if this directory is a copy that does not have its
+     * own yet, so that the child found can be changed.
+     * @param key the case-folded name, see {@link #foldName(String)}.
+     * @return the child or null if one does not exist.
+     */
+    protected FileSystemItem findChildByKey(final String key) {
+        copyChildren();
+        return descendantsByKey.get(key);
     }
 
     /**
-     * Finds a descendant of the directory at any level.
+     * Finds a descendant of the directory at any level, the first one met
+     * depth first with the children of each directory in name order.
      * @param name of the descendant.
-     * @return a FileSystemItem.
+     * @return a FileSystemItem or null if there is none.
      */
     public FileSystemItem findDescendantByName(final String name) {
-        for (FileSystemItem content : descendants) {
-            final String nm = content.getName();
-            if (nm.equalsIgnoreCase(name)) {
-                return content;
-            }
+        if (nameIndex != null) {
+            final List<FileSystemItem> found = findDescendantsByName(name);
+            return found.isEmpty() ? null : found.get(0);
+        }
 
-            if (content.isDirectory()) {
-                final Directory currDir = ((Directory) content);
-                final FileSystemItem childItem;
-                childItem = currDir.findDescendantByName(name);
-                if (childItem != null) {
-                    return childItem;
-                }
-            }
+        return walk()
+                .filter(item -> item.getName().equalsIgnoreCase(name))
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * Finds all descendants of the directory with a name, ignoring case. If
+     * the tree is indexed this takes time proportional to the number of
+     * those found, otherwise the subtree is scanned.
+     * @param name of the descendants.
+     * @return the descendants, depth first with the children of each
+     * directory in name order.
+     */
+    public List<FileSystemItem> findDescendantsByName(final String name) {
+        if (nameIndex == null) {
+            return walk()
+                    .filter(item -> item.getName().equalsIgnoreCase(name))
+                    .collect(Collectors.toList());
         }
-        return null;
+
+        return new ArrayList<>(nameIndex.find(this, name));
+    }
+
+    /**
+     * Walks the descendants of the directory lazily, each directory before
+     * its descendants.
+     * @return the descendants, depth first with the children of each
+     * directory in name order.
+     */
+    public Stream<FileSystemItem> walk() {
+        return walk(TreeWalker.Order.PRE_ORDER, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Walks the descendants of the directory lazily.
+     * @param order whether each directory comes before or after its
+     *              descendants.
+     * @param maxDepth the deepest level walked, 1 for the children only.
+     * @return the descendants, depth first with the children of each
+     * directory in name order.
+     */
+    public Stream<FileSystemItem> walk(final TreeWalker.Order order,
+                                       final int maxDepth) {
+        return StreamSupport.stream(
+                new TreeWalker(getDescendants(), order, maxDepth), false);
     }
 
     /**
@@ -78,7 +249,37 @@ public class Directory extends FileSystemItem {
      * removed.
      */
     public boolean deleteItem(final FileSystemItem item) {
-        return descendants.remove(item);
+        final boolean removed = unlinkItem(item);
+        if (removed && item.isDirectory()) {
+            ((Directory) item).cancelCopies();
+        }
+        return removed;
+    }
+
+    /**
+     * Removes an immediate descendant that is being moved to another
+     * directory, and its subtree from the name index until it is added
+     * again. Only the descendant itself is removed, never another one of
+     * the same name that replaced it, and it is left without a parent.
+     * @param item the descendant to be removed.
+     * @return a boolean indicating whether the descendant was successfully
+     * removed.
+     */
+    boolean unlinkItem(final FileSystemItem item) {
+        copyChildren();
+        copyPendingCopies();
+        final String key = foldName(item.getName());
+        if (descendantsByKey.get(key) != item
+                || !descendantsByKey.remove(key, item)) {
+            return false;
+        }
+        descendants.remove(item);
+        item.setParent(null);
+        if (nameIndex != null && item.isDirectory()) {
+            nameIndex.removeTree((Directory) item);
+        }
+        touchAncestors();
+        return true;
     }
 
     /**
@@ -86,38 +287,406 @@ public class Directory extends FileSystemItem {
      * @param item that's added.
      */
     public void addChildItem(final FileSystemItem item) {
-        descendants.add(item);
+        copyChildren();
+        copyPendingCopies();
+        if (descendants.add(item)) {
+            descendantsByKey.putIfAbsent(foldName(item.getName()), item);
+            if (nameIndex != null && item.isDirectory()) {
+                nameIndex.addTree((Directory) item);
+            }
+            touchAncestors();
+        }
+    }
+
+    /**
+     * Copies this directory into another one. The copy shares the children
+     * of this directory until either side changes: reads of the copy are
+     * served by this directory, the copy gets its own children, copied the
+     * same way, when it first changes or when a path through it is looked
+     * up to be changed, and a change to this directory or its descendants
+     * first copies the children of every copy it would show in. Copying is
+     * thus constant time and a tree only pays for the directories changed
+     * since. A read of the copy while this directory changes may see the
+     * change, as any read of a changing tree may. If the tree is indexed by
+     * name, the copy is made in full instead, as the index must hold every
+     * directory.
+     * @param parent the directory the copy is added to, which must not be
+     *               this directory or one of its descendants.
+     * @return the copy, not yet added to the parent.
+     */
+    Directory copyTo(final Directory parent) {
+        final Directory copy = copyOf(this, parent);
+        if (nameIndex != null) {
+            final Deque<Directory> pending = new ArrayDeque<>();
+            pending.push(copy);
+            while (!pending.isEmpty()) {
+                final Directory dir = pending.pop();
+                dir.copyChildren();
+                for (FileSystemItem item : dir.descendants) {
+                    pending.push((Directory) item);
+                }
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Copies this directory as the root of a detached, unindexed tree, the
+     * same way as {@link #copyTo(Directory)}, so that the tree as it is now
+     * can be read while this one changes. Unlike other copies, those in the
+     * detached tree copy their children when first read, so that a read is
+     * never served by a directory that changes meanwhile. The copy must be
+     * released with {@link #cancelCopies()} once read.
+     * @return the copy.
+     */
+    Directory copyDetached() {
+        return copyOf(this, null, isConcurrent(), null, new Tree(false, true));
+    }
+
+    /**
+     * Creates a copy of a directory that copies its children when needed.
+     * @param source the directory copied.
+     * @param parent the parent of the copy.
+     * @return the copy.
+     */
+    private static Directory copyOf(final Directory source,
+                                    final Directory parent) {
+        return copyOf(source, parent, parent.isConcurrent(), parent.nameIndex,
+                parent.tree);
+    }
+
+    private static Directory copyOf(final Directory source,
+                                    final Directory parent,
+                                    final boolean concurrent,
+                                    final NameIndex index,
+                                    final Tree tree) {
+        final Directory copy = new Directory(source.getName(), parent,
+                concurrent, index, tree);
+        // a copy of a copy shares the children of the copy, not of its
+        // template, which may change without the copy changing
+        source.copyChildren();
+        if (!source.descendants.isEmpty()) {
+            synchronized (source) {
+                final Directory[] copies = source.pendingCopies;
+                if (copies == null) {
+                    source.pendingCopies = new Directory[]{copy};
+                } else {
+                    final Directory[] more;
+                    more = Arrays.copyOf(copies, copies.length + 1);
+                    more[copies.length] = copy;
+                    source.pendingCopies = more;
+                }
+            }
+            source.tree.pendingCopies.incrementAndGet();
+            copy.template = source;
+        }
+        return copy;
+    }
+
+    /**
+     * Retrieves the directory whose children are those of this one, its
+     * template if it is a copy whose children are not copied yet and this
+     * one otherwise. In a detached tree the children are copied instead.
+     * @return the directory.
+     */
+    private Directory readable() {
+        final Directory source = template;
+        if (source == null) {
+            return this;
+        }
+        if (tree.detached) {
+            copyChildren();
+            return this;
+        }
+        return source;
+    }
+
+    /**
+     * Copies the children of the template of this directory, if it is a
+     * copy whose children are not copied yet.
+     */
+    private void copyChildren() {
+        if (template == null) {
+            return;
+        }
+        synchronized (this) {
+            final Directory source = template;
+            if (source == null) {
+                return;
+            }
+            for (FileSystemItem item : source.descendants) {
+                final Directory child = copyOf((Directory) item, this);
+                descendants.add(child);
+                descendantsByKey.put(foldName(child.getName()), child);
+            }
+            release(source);
+            if (tree.tracksChanges) {
+                // listings cached for this directory refer to the children
+                // of the template, which may now change
+                VERSION.incrementAndGet(this);
+            }
+        }
+    }
+
+    /**
+     * Stops the copies in a deleted subtree from waiting for changes to
+     * their templates. Only the children already copied are visited, so
+     * deleting a copy never copies more of it.
+     */
+    void cancelCopies() {
+        final Deque<Directory> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            final Directory dir = pending.pop();
+            if (!dir.cancelCopy()) {
+                for (FileSystemItem item : dir.descendants) {
+                    pending.push((Directory) item);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops a deleted copy from waiting for changes to its template.
+     * @return true if the copy was waiting and false if its children were
+     * already copied.
+     */
+    private boolean cancelCopy() {
+        synchronized (this) {
+            final Directory source = template;
+            if (source == null) {
+                return false;
+            }
+            release(source);
+            return true;
+        }
+    }
+
+    /**
+     * Removes this copy from the pending copies of its template, with this
+     * directory locked.
+     * @param source the template.
+     */
+    private void release(final Directory source) {
+        synchronized (source) {
+            final Directory[] copies = source.pendingCopies;
+            int kept = 0;
+            final Directory[] rest = new Directory[copies.length - 1];
+            for (Directory copy : copies) {
+                if (copy != this) {
+                    rest[kept++] = copy;
+                }
+            }
+            source.pendingCopies = rest.length == 0 ? null : rest;
+        }
+        source.tree.pendingCopies.decrementAndGet();
+        template = null;
+    }
+
+    NameIndex.Mark getIndexMark() {
+        return indexMark;
+    }
+
+    void setIndexMark(final NameIndex.Mark mark) {
+        indexMark = mark;
+    }
+
+    /**
+     * Retrieves the path index sequence number of the last move or
+     * deletion of this directory.
+     * @return the sequence number, 0 if it was never moved or deleted.
+     */
+    long getUnlinkedIn() {
+        return unlinkedIn;
+    }
+
+    /**
+     * Records a move or deletion of this directory in the path index.
+     * @param sequence the sequence number of the move or deletion.
+     */
+    void setUnlinkedIn(final long sequence) {
+        unlinkedIn = sequence;
+    }
+
+    /**
+     * Retrieves the number of copies in the tree of this directory whose
+     * children are not copied yet.
+     * @return the number of pending copies.
+     */
+    long getPendingCopyCount() {
+        return tree.pendingCopies.get();
+    }
+
+    /**
+     * Copies the children of the pending copies of this directory and its
+     * ancestors down to this directory, before it changes, so that those
+     * copies keep showing the tree as it was when they were made. Each
+     * ancestor is handled before its children, whose pending copies it
+     * may have just made. Only ancestors with pending copies are locked,
+     * and the ancestors are not walked at all while the tree has none.
+     */
+    private void copyPendingCopies() {
+        if (tree.pendingCopies.get() == 0) {
+            return;
+        }
+        final Deque<Directory> chain = new ArrayDeque<>();
+        for (Directory d = this; d != null; d = d.getParent()) {
+            chain.push(d);
+        }
+        for (Directory d : chain) {
+            final Directory[] copies = d.pendingCopies;
+            if (copies != null) {
+                for (Directory copy : copies) {
+                    copy.copyChildren();
+                }
+            }
+        }
+    }
+
+    /**
+     * Increments the versions of this directory and its ancestors if the
+     * tree tracks changes. A concurrent move of an ancestor may leave the
+     * increment on its old ancestors, which is harmless as the move
+     * increments the new ones after the change here is visible.
+     */
+    private void touchAncestors() {
+        if (!tree.tracksChanges) {
+            return;
+        }
+        for (Directory d = this; d != null; d = d.getParent()) {
+            VERSION.incrementAndGet(d);
+        }
+    }
+
+    /**
+     * Retrieves the number of descendants at any level.
+     * @return the number of descendants.
+     */
+    long getSubtreeCount() {
+        return sizes().count;
+    }
+
+    /**
+     * Retrieves the length of the LIST output of the descendants.
+     * @param level the level of the children.
+     * @return the length of the output.
+     */
+    long getSubtreeLength(final int level) {
+        final Sizes s = sizes();
+        return s.length + 2L * level * s.count;
+    }
+
+    /**
+     * Retrieves the sizes of the subtree, adding them up again for the
+     * directories changed since they were last added up. If the tree does
+     * not track changes they are added up for the whole subtree.
+     * @return the sizes.
+     */
+    private Sizes sizes() {
+        final Sizes current = sizes;
+        if (tree.tracksChanges && current != null
+                && current.version == version) {
+            return current;
+        }
+
+        // read each version before the children it covers, parents first
+        final List<Directory> stale = new ArrayList<>();
+        long[] versions = new long[16];
+        final Deque<Directory> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            final Directory d = pending.pop();
+            if (stale.size() == versions.length) {
+                versions = Arrays.copyOf(versions, 2 * versions.length);
+            }
+            versions[stale.size()] = d.version;
+            stale.add(d);
+            for (FileSystemItem item : d.getDescendants()) {
+                final Directory child = (Directory) item;
+                if (child.currentSizes() == null) {
+                    pending.push(child);
+                }
+            }
+        }
+
+        final Map<Directory, Sizes> added = new IdentityHashMap<>();
+        for (int i = stale.size() - 1; i >= 0; i--) {
+            final Directory d = stale.get(i);
+            long count = 0;
+            long length = 0;
+            for (FileSystemItem item : d.getDescendants()) {
+                final Directory child = (Directory) item;
+                Sizes s = added.get(child);
+                if (s == null) {
+                    s = child.sizes;
+                }
+                if (s == null || s.version != child.version) {
+                    // added after the walk above
+                    s = child.sizes();
+                }
+                count += 1 + s.count;
+                // the descendants are one level deeper than the child
+                length += child.getName().length() + 1 + s.length + 2 * s.count;
+            }
+            final Sizes s = new Sizes(versions[i], count, length);
+            added.put(d, s);
+            if (tree.tracksChanges) {
+                d.sizes = s;
+            }
+        }
+        return added.get(this);
+    }
+
+    /**
+     * Retrieves the sizes of the subtree if they are up to date.
+     * @return the sizes or null if they must be added up again.
+     */
+    private Sizes currentSizes() {
+        final Sizes s = sizes;
+        return tree.tracksChanges && s != null && s.version == version ? s : null;
+    }
+
+    /**
+     * Retrieves the version, incremented whenever a descendant at any level
+     * is added or removed.
+     * @return the version.
+     */
+    long getVersion() {
+        return version;
+    }
+
+    ListingCache getListing() {
+        return listing;
+    }
+
+    void setListing(final ListingCache cache) {
+        listing = cache;
     }
 
     /**
      * Get the set of descendants.
      * @return the Set of descendants.
      */
-    protected TreeSet<FileSystemItem> getDescendants() {
-        return descendants;
+    protected NavigableSet<FileSystemItem> getDescendants() {
+        return readable().descendants;
     }
 
     /**
-     * Indicates whether some other object is equal thi this directory.
-     * @param o the other object.
-     * @return true if it is and false otherwise.
+     * Indicates whether the descendants may be read while another thread
+     * adds or deletes them.
+     * @return true if the directory is safe to share between threads.
      */
-    @Override
-    public boolean equals(final Object o) {
-        if (this == o) return true;
-        if (!(o instanceof Directory)) return false;
-        if (!super.equals(o)) return false;
-        final Directory directory = (Directory) o;
-        return Objects.equals(getDescendants(), directory.getDescendants());
+    protected boolean isConcurrent() {
+        return descendants instanceof ConcurrentSkipListSet;
     }
 
     /**
-     * A unique hashcode representing the object.
-     * @return  int hashcode value.
+     * Case-folds a name so that lookups match names ignoring case.
+     * @param name the name to fold.
+     * @return the folded lookup key.
      */
-    @Override
-    public int hashCode() {
-        return Objects.hash(super.hashCode(), getDescendants());
+    protected static String foldName(final String name) {
+        return name.toLowerCase(Locale.ROOT);
     }
 
     /**
@@ -130,4 +699,49 @@ public class Directory extends FileSystemItem {
     public int compareTo(final Object o) {
         return this.getName().compareTo(((Directory) o).getName());
     }
+
+    /**
+     * The state shared by all directories of a tree.
+     */
+    private static final class Tree {
+
+        /**
+         * Whether the tree keeps the versions of its directories, so that
+         * the sizes and listings cached for them can be checked.
+         */
+        private final boolean tracksChanges;
+        /**
+         * Whether the tree is a detached copy, whose copies copy their
+         * children when first read.
+         */
+        private final boolean detached;
+        /**
+         * The number of copies of directories of the tree whose children
+         * are not copied yet, so that mutations skip looking for them when
+         * there are none.
+         */
+        private final AtomicLong pendingCopies = new AtomicLong();
+
+        Tree(final boolean tracksChanges, final boolean detached) {
+            this.tracksChanges = tracksChanges;
+            this.detached = detached;
+        }
+    }
+
+    /**
+     * The number of descendants of a directory at any level and the length
+     * of their LIST output with the children at level 0, as of a version.
+     */
+    private static final class Sizes {
+
+        private final long version;
+        private final long count;
+        private final long length;
+
+        Sizes(final long version, final long count, final long length) {
+            this.version = version;
+            this.count = count;
+            this.length = length;
+        }
+    }
 }
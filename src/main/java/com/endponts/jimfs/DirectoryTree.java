@@ -0,0 +1,101 @@
+package com.endponts.jimfs;
+
+import io.vavr.control.Either;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The file system operations of a directory tree, independent of how the
+ * tree is stored.
+ * @author mw
+ * @version 0.9
+ */
+public interface DirectoryTree {
+
+    /**
+     * Creates a new directory in the location specified. Does nothing if
+     * the directory already exist.
+     * @param path of the directory.
+     * @return either an error or a boolean confirming the creation.
+     */
+    Either<Exception, Boolean> mkdir(String path);
+
+    /**
+     * Move a directory from one path to another.
+     * @param srcPath of the directory that will be moved
+     * @param destPath of the directory that will receive the source directory
+     * @return either an error or a boolean confirming the move.
+     */
+    Either<Exception, Boolean> mv(String srcPath, String destPath);
+
+    /**
+     * Copies a directory and its descendants into another directory.
+     * @param srcPath of the directory that will be copied.
+     * @param destPath of the directory that will receive the copy.
+     * @return either an error or a boolean confirming the copy. Trees that
+     * cannot copy return an {@link UnsupportedOperationException}.
+     */
+    default Either<Exception, Boolean> cp(final String srcPath,
+                                          final String destPath) {
+        return Either.left(new UnsupportedOperationException(
+                "Copying is not supported."));
+    }
+
+    /**
+     * Remove/Delete a directory.
+     * @param path of the directory to delete.
+     * @return either an error or a boolean confirming the deletion.
+     */
+    Either<Exception, Boolean> rm(String path);
+
+    /**
+     * List all directories of the tree.
+     * @return a formatted string of the directories, one per line and
+     * indented by depth.
+     */
+    String ls();
+
+    /**
+     * Streams the same listing as {@link #ls()} to the given output.
+     * @param out the output the listing is written to.
+     * @throws IOException if writing to the output fails.
+     */
+    void ls(Appendable out) throws IOException;
+
+    /**
+     * Lists the same directories as {@link #ls()} a part at a time, each
+     * rendered when it is asked for, for an output that takes the listing
+     * slowly. The parts not asked for yet see the changes made meanwhile,
+     * as those not written yet by {@link #ls(Appendable)} do. Trees that
+     * cannot render a part at a time return the whole listing as one part.
+     * @return the parts of the listing, in order.
+     */
+    default Iterator<String> lsParts() {
+        return List.of(ls()).iterator();
+    }
+
+    /**
+     * Lists the descendants of a directory down to a depth, formatted as by
+     * {@link #ls()} with the children of the directory at level 0.
+     * @param path of the directory to list, the root if empty.
+     * @param maxDepth the deepest level listed, 1 for the children only.
+     * @param filter the pattern of the names listed and descended into,
+     *               null to list all.
+     * @return either an error or the listing. Trees that cannot list a
+     * subtree return an {@link UnsupportedOperationException}.
+     */
+    default Either<Exception, String> ls(final String path,
+                                         final int maxDepth,
+                                         final Glob filter) {
+        return Either.left(new UnsupportedOperationException(
+                "Listing a subtree is not supported."));
+    }
+
+    /**
+     * Indicates whether the tree has any directories.
+     * @return true if the tree is empty and false otherwise.
+     */
+    boolean isEmpty();
+}
@@ -0,0 +1,435 @@
+package com.endponts.jimfs;
+
+import io.vavr.control.Either;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static java.lang.String.format;
+
+/**
+ * A {@link FileSystem} that survives restarts. Every successful mkdir, mv,
+ * cp and rm is appended to a write-ahead journal and forced to the disk before
+ * it is confirmed; concurrent writers share one fsync. Every so often the
+ * whole tree is written to a snapshot and a new journal is started, so
+ * recovery reads the latest snapshot and replays only the journals written
+ * after it.
+ *
+ * <p>A data directory holds {@code snapshot-N.bin} and
+ * {@code journal-N.log} where N is the generation: the snapshot is the
+ * tree before the first command of the journal of the same generation.</p>
+ *
+ * <p>A command is applied to the tree before it is on the disk. If the
+ * journal or a snapshot cannot be written, the file system fails closed:
+ * every later operation, reads included, fails with the error, as the tree
+ * may hold commands the disk does not. Reopening it recovers the commands
+ * that were confirmed.</p>
+ * @author mw
+ * @version 0.9
+ */
+public final class DurableFileSystem implements DirectoryTree, Closeable {
+
+    /**
+     * The number of journaled commands after which a snapshot is taken.
+     */
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 1_000_000;
+
+    /**
+     * The names of the snapshot and journal files.
+     */
+    private static final Pattern FILE_NAME =
+            Pattern.compile("(snapshot|journal)-(\\d+)\\.(bin|log|tmp)");
+
+    /**
+     * The data directory.
+     */
+    private final Path directory;
+    /**
+     * The in-memory tree, concurrent so that readers take no locks.
+     */
+    private final FileSystem fileSystem;
+    /**
+     * The number of journaled commands after which a snapshot is taken.
+     */
+    private final int snapshotInterval;
+    /**
+     * Orders the commands applied to the tree and appended to the journal.
+     */
+    private final Object writeLock = new Object();
+    /**
+     * Orders the snapshots, which are written outside {@link #writeLock}.
+     */
+    private final Object snapshotLock = new Object();
+    /**
+     * The error the file system failed with, if any.
+     */
+    private volatile IOException failure;
+    /**
+     * The journal of the current generation.
+     */
+    private Journal journal;
+    /**
+     * The current generation.
+     */
+    private long generation;
+    /**
+     * The number of commands in the journal of the current generation.
+     */
+    private long journaled;
+    /**
+     * Whether a writer was asked to take the next snapshot.
+     */
+    private boolean snapshotDue;
+
+    private DurableFileSystem(final Path directory,
+                              final int snapshotInterval) {
+        this.directory = directory;
+        this.snapshotInterval = snapshotInterval;
+        this.fileSystem = new FileSystem(true);
+    }
+
+    /**
+     * Opens a durable file system, recovering the tree stored in a data
+     * directory.
+     * @param directory the data directory, created if missing.
+     * @return the file system.
+     * @throws IOException if the tree cannot be recovered.
+     */
+    public static DurableFileSystem open(final Path directory)
+            throws IOException {
+        return open(directory, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    /**
+     * Opens a durable file system, recovering the tree stored in a data
+     * directory.
+     * @param directory the data directory, created if missing.
+     * @param snapshotInterval the number of journaled commands after which
+     *                         a snapshot is taken.
+     * @return the file system.
+     * @throws IOException if the tree cannot be recovered.
+     */
+    public static DurableFileSystem open(final Path directory,
+                                         final int snapshotInterval)
+            throws IOException {
+        Files.createDirectories(directory);
+        final DurableFileSystem fs;
+        fs = new DurableFileSystem(directory, snapshotInterval);
+        fs.recover();
+        return fs;
+    }
+
+    @Override
+    public Either<Exception, Boolean> mkdir(final String path) {
+        return apply(Command.create(path));
+    }
+
+    @Override
+    public Either<Exception, Boolean> mv(final String srcPath,
+                                         final String destPath) {
+        return apply(Command.move(srcPath, destPath));
+    }
+
+    @Override
+    public Either<Exception, Boolean> cp(final String srcPath,
+                                         final String destPath) {
+        return apply(Command.copy(srcPath, destPath));
+    }
+
+    @Override
+    public Either<Exception, Boolean> rm(final String path) {
+        return apply(Command.delete(path));
+    }
+
+    @Override
+    public String ls() {
+        checkNotFailed();
+        return fileSystem.ls();
+    }
+
+    @Override
+    public void ls(final Appendable out) throws IOException {
+        final IOException failed = failure;
+        if (failed != null) {
+            throw failed;
+        }
+        fileSystem.ls(out);
+    }
+
+    @Override
+    public Iterator<String> lsParts() {
+        checkNotFailed();
+        return fileSystem.lsParts();
+    }
+
+    @Override
+    public Either<Exception, String> ls(final String path,
+                                        final int maxDepth,
+                                        final Glob filter) {
+        final IOException failed = failure;
+        if (failed != null) {
+            return Either.left(failed);
+        }
+        return fileSystem.ls(path, maxDepth, filter);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        checkNotFailed();
+        return fileSystem.isEmpty();
+    }
+
+    /**
+     * Writes the tree to a new snapshot and starts a new journal. Writers
+     * only wait while the new journal is started and the tree is copied,
+     * which is lazy, not while the snapshot is written.
+     * @throws IOException if the snapshot cannot be written, after which
+     * the file system fails closed.
+     */
+    public void snapshot() throws IOException {
+        synchronized (snapshotLock) {
+            final long next;
+            final Directory tree;
+            synchronized (writeLock) {
+                if (failure != null) {
+                    throw failure;
+                }
+                try {
+                    journal.close();
+                    next = generation + 1;
+                    journal = new Journal(file("journal", next, "log"), 0);
+                    syncDirectory();
+                } catch (IOException e) {
+                    throw fail(e);
+                }
+                generation = next;
+                journaled = 0;
+                snapshotDue = false;
+                tree = fileSystem.getRoot().copyDetached();
+            }
+
+            try {
+                final Path tmp = file("snapshot", next, "tmp");
+                SnapshotFile.write(tree, tmp);
+                Files.move(tmp, file("snapshot", next, "bin"),
+                        StandardCopyOption.ATOMIC_MOVE);
+                syncDirectory();
+                deleteOlderThan(next);
+            } catch (IOException e) {
+                throw fail(e);
+            } finally {
+                tree.cancelCopies();
+            }
+        }
+    }
+
+    /**
+     * Forces the journal to the disk and closes it.
+     * @throws IOException if the journal cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Applies a command and, if it succeeds, waits until it is journaled.
+     * @param command the command.
+     * @return either an error or a boolean confirming the command.
+     */
+    private Either<Exception, Boolean> apply(final Command command) {
+        final Either<Exception, Boolean> result;
+        final Journal target;
+        final long sequence;
+        final boolean takeSnapshot;
+        synchronized (writeLock) {
+            final IOException failed = failure;
+            if (failed != null) {
+                return Either.left(failed);
+            }
+            result = execute(command);
+            if (result.isLeft()) {
+                return result;
+            }
+            target = journal;
+            sequence = journal.append(command);
+            // only one of the writers past the interval takes the snapshot
+            takeSnapshot = ++journaled >= snapshotInterval && !snapshotDue;
+            snapshotDue |= takeSnapshot;
+        }
+
+        try {
+            target.sync(sequence);
+        } catch (IOException e) {
+            return Either.left(fail(e));
+        }
+        if (takeSnapshot) {
+            try {
+                snapshot();
+            } catch (IOException e) {
+                return Either.left(e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Fails the file system closed, unless it already failed.
+     * @param cause the error that failed it.
+     * @return the error every later operation fails with.
+     */
+    private IOException fail(final IOException cause) {
+        synchronized (writeLock) {
+            if (failure == null) {
+                failure = new IOException(
+                        "File system failed, reopen it to recover", cause);
+            }
+            return failure;
+        }
+    }
+
+    /**
+     * Rejects an operation if the file system failed.
+     * @throws UncheckedIOException with the error it failed with.
+     */
+    private void checkNotFailed() {
+        final IOException failed = failure;
+        if (failed != null) {
+            throw new UncheckedIOException(failed);
+        }
+    }
+
+    /**
+     * Forces the entries of the data directory, such as a new journal or
+     * a renamed snapshot, to the disk.
+     * @throws IOException if the directory cannot be forced.
+     */
+    private void syncDirectory() throws IOException {
+        try (FileChannel dir = FileChannel.open(directory,
+                StandardOpenOption.READ)) {
+            dir.force(true);
+        }
+    }
+
+    /**
+     * Applies a command to the in-memory tree.
+     * @param command the command.
+     * @return either an error or a boolean confirming the command.
+     */
+    private Either<Exception, Boolean> execute(final Command command) {
+        switch (command.getType()) {
+            case CREATE:
+                return fileSystem.mkdir(command.getPath());
+            case DELETE:
+                return fileSystem.rm(command.getPath());
+            case COPY:
+                return fileSystem.cp(command.getPath(),
+                        command.getDestPath());
+            default:
+                return fileSystem.mv(command.getPath(),
+                        command.getDestPath());
+        }
+    }
+
+    /**
+     * Loads the latest snapshot, replays the journals written after it and
+     * removes the files of older generations. A journal may be newer than
+     * the latest snapshot if the file system stopped while the snapshot
+     * was written.
+     * @throws IOException if the files cannot be read.
+     */
+    private void recover() throws IOException {
+        long latest = 0;
+        long latestJournal = 0;
+        for (Path path : listFiles()) {
+            final Matcher m = FILE_NAME.matcher(path.getFileName().toString());
+            if (!m.matches()) {
+                continue;
+            }
+            final long gen = Long.parseLong(m.group(2));
+            if (m.group(3).equals("tmp")) {
+                Files.delete(path);
+            } else if (m.group(1).equals("snapshot")) {
+                latest = Math.max(latest, gen);
+            } else {
+                latestJournal = Math.max(latestJournal, gen);
+            }
+        }
+        latestJournal = Math.max(latest, latestJournal);
+
+        final Path snapshot = file("snapshot", latest, "bin");
+        if (Files.exists(snapshot)) {
+            SnapshotFile.read(snapshot, fileSystem.getRoot());
+        }
+
+        final List<Command> commands = new ArrayList<>();
+        long validLength = 0;
+        for (long gen = latest; gen <= latestJournal; gen++) {
+            commands.clear();
+            validLength = Journal.read(file("journal", gen, "log"), commands);
+            for (Command command : commands) {
+                execute(command);
+            }
+        }
+
+        journal = new Journal(file("journal", latestJournal, "log"),
+                validLength);
+        syncDirectory();
+        generation = latestJournal;
+        journaled = commands.size();
+        deleteOlderThan(latest);
+    }
+
+    /**
+     * Deletes the snapshots and journals of older generations.
+     * @param current the current generation.
+     * @throws IOException if a file cannot be deleted.
+     */
+    private void deleteOlderThan(final long current) throws IOException {
+        for (Path path : listFiles()) {
+            final Matcher m = FILE_NAME.matcher(path.getFileName().toString());
+            if (m.matches() && Long.parseLong(m.group(2)) < current) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * Lists the files of the data directory.
+     * @return the files.
+     * @throws IOException if the directory cannot be read.
+     */
+    private List<Path> listFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            final List<Path> paths = new ArrayList<>();
+            files.forEach(paths::add);
+            return paths;
+        }
+    }
+
+    /**
+     * Resolves a file of the data directory.
+     * @param kind snapshot or journal.
+     * @param gen the generation.
+     * @param extension the file extension.
+     * @return the file.
+     */
+    private Path file(final String kind, final long gen,
+                      final String extension) {
+        return directory.resolve(format("%s-%d.%s", kind, gen, extension));
+    }
+}
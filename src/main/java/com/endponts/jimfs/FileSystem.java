@@ -2,48 +2,614 @@ package com.endponts.jimfs;
 
 import io.vavr.control.Either;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.TreeSet;
-import java.util.stream.Stream;
-
-import static java.lang.String.format;
-import static java.lang.String.join;
-import static java.util.stream.Collectors.toList;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Represents a files system and performs file system operations.
  * @author mw
  * @version 0.9
  */
-public class FileSystem {
+public class FileSystem extends AbstractDirectoryTree {
 
     /**
      * The FileSystem root directory.
      */
     private final Directory root;
     /**
-     * The File System item name invalid characters.
+     * The result of every successful operation.
+     */
+    private static final Either<Exception, Boolean> SUCCESS = Either.right(true);
+    /**
+     * The number of lock stripes of a concurrent FileSystem.
+     */
+    private static final int LOCK_STRIPES = 256;
+    /**
+     * The locks writers take on the directories they mutate.
+     */
+    private final StripedLocks locks;
+    /**
+     * The directories of the paths resolved so far, null if paths are not
+     * indexed.
+     */
+    private final PathIndex pathIndex;
+    /**
+     * The number of directories a parallel LIST task renders on its own.
+     */
+    private static final int LIST_TASK_SIZE = 1 << 14;
+    /**
+     * The number of descendants from which a directory caches its own LIST
+     * output rather than being rendered into its parent's.
+     */
+    private static final int LIST_CACHE_SIZE = 64;
+    /**
+     * The number of chars from which {@link #lsParts()} ends a part it
+     * renders from the tree.
+     */
+    private static final int LIST_PART_SIZE = 1 << 14;
+    /**
+     * Whether the LIST output is cached.
      */
-    private final String[] DIR_INVALID_CHARS = {" ", ":"};
+    private final boolean cacheListing;
+    /**
+     * Whether directories are indexed by name.
+     */
+    private final boolean indexNames;
+
     /**
      * Construct a new FileSystem with root directory.
      */
     public FileSystem() {
-        root = new Directory("", null);
+        this(false);
+    }
+
+    /**
+     * Construct a new FileSystem with root directory.
+     * @param concurrent whether the FileSystem is shared between threads.
+     *                   Writers then lock only the directories they mutate
+     *                   and readers such as {@link #ls()} take no locks.
+     */
+    public FileSystem(final boolean concurrent) {
+        this(concurrent, NameValidator.DEFAULT);
+    }
+
+    /**
+     * Construct a new FileSystem with root directory.
+     * @param concurrent whether the FileSystem is shared between threads.
+     * @param nameValidator the validator of the directory names.
+     */
+    public FileSystem(final boolean concurrent,
+                      final NameValidator nameValidator) {
+        this(concurrent, nameValidator, false);
+    }
+
+    /**
+     * Construct a new FileSystem with root directory.
+     * @param concurrent whether the FileSystem is shared between threads.
+     * @param nameValidator the validator of the directory names.
+     * @param indexPaths whether whole paths are indexed, so that a path
+     *                   resolved before is found with one map probe and a
+     *                   walk up its parent chain that reads one field per
+     *                   directory, rather than one child lookup per name.
+     *                   A hit thus still takes time proportional to the
+     *                   depth of the path. A move or deletion only makes
+     *                   the next resolution of the paths through the
+     *                   directory moved or deleted walk the tree again.
+     */
+    public FileSystem(final boolean concurrent,
+                      final NameValidator nameValidator,
+                      final boolean indexPaths) {
+        this(concurrent, nameValidator, indexPaths, false);
+    }
+
+    /**
+     * Construct a new FileSystem with root directory.
+     * @param concurrent whether the FileSystem is shared between threads.
+     * @param nameValidator the validator of the directory names.
+     * @param indexPaths whether whole paths are indexed, see
+     *                   {@link #FileSystem(boolean, NameValidator, boolean)}.
+     * @param indexNames whether directories are indexed by name, so that
+     *                   {@link #find(String, String)} takes time proportional
+     *                   to the directories found rather than to the size of
+     *                   the subtree searched. Moving or deleting a directory
+     *                   then takes time proportional to its descendants.
+     */
+    public FileSystem(final boolean concurrent,
+                      final NameValidator nameValidator,
+                      final boolean indexPaths,
+                      final boolean indexNames) {
+        this(concurrent, nameValidator, indexPaths, indexNames, false);
+    }
+
+    /**
+     * Construct a new FileSystem with root directory.
+     * @param concurrent whether the FileSystem is shared between threads.
+     * @param nameValidator the validator of the directory names.
+     * @param indexPaths whether whole paths are indexed, see
+     *                   {@link #FileSystem(boolean, NameValidator, boolean)}.
+     * @param indexNames whether directories are indexed by name, see
+     *                   {@link #FileSystem(boolean, NameValidator, boolean,
+     *                   boolean)}.
+     * @param cacheListing whether the LIST output is cached, so that a LIST
+     *                     after a mutation only renders the directories
+     *                     along the path of the mutation again and copies
+     *                     the rest. The cache holds about one copy of the
+     *                     output.
+     */
+    public FileSystem(final boolean concurrent,
+                      final NameValidator nameValidator,
+                      final boolean indexPaths,
+                      final boolean indexNames,
+                      final boolean cacheListing) {
+        super(nameValidator);
+        this.cacheListing = cacheListing;
+        this.indexNames = indexNames;
+        final NameIndex nameIndex = indexNames ? new NameIndex() : null;
+        root = new Directory("", null, concurrent, nameIndex, cacheListing);
+        if (nameIndex != null) {
+            nameIndex.addRoot(root);
+        }
+        locks = concurrent ? new StripedLocks(LOCK_STRIPES) : StripedLocks.NONE;
+        pathIndex = indexPaths ? new PathIndex() : null;
+    }
+
+    /**
+     * Indicates whether the FileSystem is safe to share between threads.
+     * @return true if the FileSystem is concurrent and false otherwise.
+     */
+    public boolean isConcurrent() {
+        return root.isConcurrent();
+    }
+
+    /**
+     * Retrieves the root directory.
+     * @return the root directory.
+     */
+    Directory getRoot() {
+        return root;
     }
 
     /**
      * List all descendants of the FileSystem root.
      * @return a formatted string of the file system items
      */
+    @Override
     public String ls() {
         if (root.getDescendants().isEmpty()) {
             return "";
         }
 
-        final TreeSet<FileSystemItem> contents = root.getDescendants();
-        return buildPrintString(contents, 0);
+        if (cacheListing) {
+            final StringBuilder sb = new StringBuilder(presize(root, 0));
+            try {
+                writeCached(sb);
+            } catch (IOException e) {
+                // appending to a StringBuilder never fails
+                throw new UncheckedIOException(e);
+            }
+            return sb.toString();
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        appendPrintString(root.getDescendants(), 0, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Streams all descendants of the FileSystem root, formatted the same way
+     * as {@link #ls()}, to the given output without building the listing in
+     * memory first.
+     * @param out the output the listing is written to.
+     * @throws IOException if writing to the output fails.
+     */
+    @Override
+    public void ls(final Appendable out) throws IOException {
+        if (cacheListing) {
+            writeCached(out);
+        } else {
+            writePrintString(root.getDescendants(), 0, out, new ArrayList<>());
+        }
+    }
+
+    /**
+     * Lists all descendants of the FileSystem root like {@link #ls()}, a
+     * part at a time: the cached parts if the output is cached, otherwise
+     * about {@link #LIST_PART_SIZE} chars rendered at a time.
+     * @return the parts of the listing, in order.
+     */
+    @Override
+    public Iterator<String> lsParts() {
+        return cacheListing ? new CachedParts() : new WalkedParts();
+    }
+
+    /**
+     * Writes the LIST output from the caches, rendering those of
+     * directories that changed since they were cached.
+     * @param out the output written to.
+     * @throws IOException if writing to the output fails.
+     */
+    private void writeCached(final Appendable out) throws IOException {
+        final Iterator<String> parts = new CachedParts();
+        while (parts.hasNext()) {
+            out.append(parts.next());
+        }
+    }
+
+    /**
+     * The parts of the cached LIST output, rendering the caches of the
+     * directories that changed since they were cached as it reaches them.
+     */
+    private final class CachedParts implements Iterator<String> {
+        /**
+         * The indentation of each level rendered so far.
+         */
+        private final List<String> indents = new ArrayList<>();
+        /**
+         * The cached parts of the directories entered, deepest on top.
+         */
+        private final Deque<Object[]> parts = new ArrayDeque<>();
+        /**
+         * The next part and the level of the children of each directory
+         * entered.
+         */
+        private final Deque<int[]> positions = new ArrayDeque<>();
+        /**
+         * The next part, null if it is not found yet.
+         */
+        private String next;
+
+        CachedParts() {
+            parts.push(listing(root, 0).getParts());
+            positions.push(new int[]{0, 0});
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !parts.isEmpty()) {
+                final Object[] top = parts.peek();
+                final int[] position = positions.peek();
+                if (position[0] == top.length) {
+                    parts.pop();
+                    positions.pop();
+                    continue;
+                }
+
+                final Object part = top[position[0]++];
+                if (part instanceof String) {
+                    next = (String) part;
+                } else {
+                    final int level = position[1] + 1;
+                    parts.push(listing((Directory) part, level).getParts());
+                    positions.push(new int[]{0, level});
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final String part = next;
+            next = null;
+            return part;
+        }
+
+        private ListingCache listing(final Directory dir, final int level) {
+            try {
+                return cachedListing(dir, level, indents);
+            } catch (IOException e) {
+                // rendering into a StringBuilder never fails
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * The parts of the LIST output rendered from the tree, about
+     * {@link #LIST_PART_SIZE} chars at a time.
+     */
+    private final class WalkedParts implements Iterator<String> {
+        /**
+         * The indentation of each level rendered so far.
+         */
+        private final List<String> indents = new ArrayList<>();
+        /**
+         * The walk of the directories not rendered yet.
+         */
+        private final TreeWalker walker = new TreeWalker(root.getDescendants(),
+                TreeWalker.Order.PRE_ORDER, Integer.MAX_VALUE);
+        /**
+         * The next directory to render, null once the walk is over.
+         */
+        private FileSystemItem item = walker.next();
+
+        @Override
+        public boolean hasNext() {
+            return item != null;
+        }
+
+        @Override
+        public String next() {
+            if (item == null) {
+                throw new NoSuchElementException();
+            }
+            final StringBuilder sb = new StringBuilder();
+            while (item != null && sb.length() < LIST_PART_SIZE) {
+                final int level = walker.depth() - 1;
+                while (indents.size() <= level) {
+                    indents.add(getLevelIndentation(indents.size(), "  "));
+                }
+                sb.append(indents.get(level)).append(item.getName()).append('\n');
+                item = walker.next();
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Retrieves the cached LIST output of the descendants of a directory,
+     * rendering it if the directory changed or moved since it was cached.
+     * Children with few descendants are rendered with them, the others
+     * are left to their own caches.
+     * @param dir the directory.
+     * @param level the level of the children of the directory.
+     * @param indents the indentation of each level written so far.
+     * @return the cached output.
+     * @throws IOException never, the output is rendered in memory.
+     */
+    private ListingCache cachedListing(final Directory dir,
+                                       final int level,
+                                       final List<String> indents)
+            throws IOException {
+        final long version = dir.getVersion();
+        final ListingCache cached = dir.getListing();
+        if (cached != null && cached.isValid(version, level)) {
+            return cached;
+        }
+
+        while (indents.size() <= level) {
+            indents.add(getLevelIndentation(indents.size(), "  "));
+        }
+        final List<Object> parts = new ArrayList<>();
+        final StringBuilder text = new StringBuilder();
+        for (FileSystemItem item : dir.getDescendants()) {
+            text.append(indents.get(level)).append(item.getName()).append('\n');
+            final Directory child = (Directory) item;
+            if (child.getSubtreeCount() >= LIST_CACHE_SIZE) {
+                parts.add(text.toString());
+                text.setLength(0);
+                parts.add(child);
+            } else {
+                writeItems(child.getDescendants(), level + 1, text, indents);
+            }
+        }
+        if (text.length() > 0) {
+            parts.add(text.toString());
+        }
+
+        final ListingCache listing;
+        listing = new ListingCache(version, level, parts.toArray());
+        dir.setListing(listing);
+        return listing;
+    }
+
+    /**
+     * Sizes a buffer for the LIST output of the descendants of a directory
+     * from the sizes the tree keeps when it caches the output.
+     * @param dir the directory.
+     * @param level the level of the children of the directory.
+     * @return the expected length of the output.
+     */
+    private static int presize(final Directory dir, final int level) {
+        return presize(dir.getSubtreeLength(level));
+    }
+
+    private static int presize(final long length) {
+        return (int) Math.max(0, Math.min(length, Integer.MAX_VALUE - 8));
+    }
+
+    /**
+     * Lists all descendants of the FileSystem root like {@link #ls()}, with
+     * the subtrees rendered in parallel on the common fork-join pool.
+     * @return a formatted string of the file system items
+     */
+    public String lsParallel() {
+        return lsParallel(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Lists all descendants of the FileSystem root like {@link #ls()}, with
+     * the subtrees rendered in parallel.
+     * @param pool the pool rendering the subtrees.
+     * @return a formatted string of the file system items
+     */
+    public String lsParallel(final ForkJoinPool pool) {
+        final List<StringBuilder> parts = renderParallel(pool);
+        int length = 0;
+        for (StringBuilder part : parts) {
+            length += part.length();
+        }
+        final StringBuilder sb = new StringBuilder(length);
+        for (StringBuilder part : parts) {
+            sb.append(part);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Streams all descendants of the FileSystem root like
+     * {@link #ls(Appendable)}, with the subtrees rendered in parallel and
+     * then written in order.
+     * @param out the output the listing is written to.
+     * @param pool the pool rendering the subtrees.
+     * @throws IOException if writing to the output fails.
+     */
+    public void lsParallel(final Appendable out, final ForkJoinPool pool)
+            throws IOException {
+        for (StringBuilder part : renderParallel(pool)) {
+            out.append(part);
+        }
+    }
+
+    private List<StringBuilder> renderParallel(final ForkJoinPool pool) {
+        final List<ListTask> tasks = planList();
+        for (ListTask task : tasks) {
+            pool.execute(task);
+        }
+        final List<StringBuilder> parts = new ArrayList<>(tasks.size());
+        for (ListTask task : tasks) {
+            parts.add(task.join());
+        }
+        return parts;
+    }
+
+    /**
+     * Divides the LIST output into tasks of about {@link #LIST_TASK_SIZE}
+     * directories each, in output order, by the subtree sizes the
+     * directories keep if the output is cached, or by counting them up to
+     * that size otherwise. Sibling ranges holding more are
+     * halved, and a single directory holding more has its line rendered
+     * ahead of the first task of its children.
+     * @return the tasks.
+     */
+    private List<ListTask> planList() {
+        final List<ListTask> tasks = new ArrayList<>();
+        final Deque<ListTask> pending = new ArrayDeque<>();
+        pending.push(new ListTask("", new ArrayList<>(root.getDescendants()), 0));
+        final StringBuilder lines = new StringBuilder();
+        while (!pending.isEmpty()) {
+            final ListTask range = pending.pop();
+            final List<FileSystemItem> items = range.items;
+            final long size = cacheListing
+                    ? sizeUpTo(items, LIST_TASK_SIZE)
+                    : countUpTo(items, LIST_TASK_SIZE);
+            final boolean large = size >= LIST_TASK_SIZE;
+            if (large && items.size() > 1) {
+                final int mid = items.size() / 2;
+                pending.push(new ListTask("", items.subList(mid, items.size()), range.level));
+                pending.push(new ListTask("", items.subList(0, mid), range.level));
+            } else if (large) {
+                final Directory dir = (Directory) items.get(0);
+                lines.append(getLevelIndentation(range.level, "  "))
+                        .append(dir.getName()).append('\n');
+                final List<FileSystemItem> children;
+                children = new ArrayList<>(dir.getDescendants());
+                pending.push(new ListTask("", children, range.level + 1));
+            } else {
+                tasks.add(new ListTask(lines.toString(), items, range.level));
+                lines.setLength(0);
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * Renders some lines followed by a range of siblings and their
+     * descendants.
+     */
+    private final class ListTask extends RecursiveTask<StringBuilder> {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The lines rendered ahead of the siblings.
+         */
+        private final String lines;
+        /**
+         * The siblings to render.
+         */
+        private final List<FileSystemItem> items;
+        /**
+         * The level at which the siblings sit.
+         */
+        private final int level;
+
+        ListTask(final String lines,
+                 final List<FileSystemItem> items,
+                 final int level) {
+            this.lines = lines;
+            this.items = items;
+            this.level = level;
+        }
+
+        @Override
+        protected StringBuilder compute() {
+            long length = lines.length();
+            if (cacheListing) {
+                for (FileSystemItem item : items) {
+                    length += 2L * level + item.getName().length() + 1;
+                    length += ((Directory) item).getSubtreeLength(level + 1);
+                }
+            }
+            final StringBuilder sb = new StringBuilder(presize(length));
+            sb.append(lines);
+            try {
+                writeItems(items, level, sb, new ArrayList<>());
+            } catch (IOException e) {
+                // appending to a StringBuilder never fails
+                throw new UncheckedIOException(e);
+            }
+            return sb;
+        }
+    }
+
+    /**
+     * Adds up the sizes of items and their descendants, stopping at a limit.
+     * @param items the items.
+     * @param limit the size at which adding stops.
+     * @return the size, at least the limit if it was reached.
+     */
+    private static long sizeUpTo(final List<FileSystemItem> items,
+                                 final long limit) {
+        long size = 0;
+        for (int i = 0; i < items.size() && size < limit; i++) {
+            size += 1 + ((Directory) items.get(i)).getSubtreeCount();
+        }
+        return size;
+    }
+
+    /**
+     * Counts items and their descendants, stopping at a limit.
+     * @param items the items.
+     * @param limit the count at which counting stops.
+     * @return the count, at most the limit.
+     */
+    private static long countUpTo(final List<FileSystemItem> items,
+                                  final long limit) {
+        final TreeWalker walker = new TreeWalker(items,
+                TreeWalker.Order.PRE_ORDER, Integer.MAX_VALUE);
+        long count = 0;
+        while (count < limit && walker.next() != null) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Indicates whether the FileSystem root has any descendants.
+     * @return true if the file system is empty and false otherwise.
+     */
+    @Override
+    public boolean isEmpty() {
+        return root.getDescendants().isEmpty();
     }
 
     /**
@@ -52,31 +618,55 @@ public class FileSystem {
      * @param level the level at which the descendents sit.
      * @return the formatted list of descendents
      */
-    protected String buildPrintString(final TreeSet<FileSystemItem> descendants,
+    protected String buildPrintString(final NavigableSet<FileSystemItem> descendants,
                                       final int level) {
         final StringBuilder sb = new StringBuilder();
-        final String levelIndentation = getLevelIndentation(level, "  ");
-        for (FileSystemItem content : descendants) {
-            sb.append(levelIndentation).append(content.getName()).append("\n");
-            if (content.isDirectory()) {
-                final TreeSet<FileSystemItem> children;
-                children = ((Directory) content).getDescendants();
-                final int incLevel = level + 1;
-                final String printString = buildPrintString(children, incLevel);
-                sb.append(printString);
-            }
-        }
+        appendPrintString(descendants, level, sb);
         return sb.toString();
     }
 
-    protected final String getLevelIndentation(final int level,
-                                               final String value) {
-        final StringBuilder indent = new StringBuilder();
-        for (int i = 0; i < level; i++) {
-            indent.append(value);
+    private void appendPrintString(final NavigableSet<FileSystemItem> descendants,
+                                   final int level,
+                                   final StringBuilder sb) {
+        try {
+            writePrintString(descendants, level, sb, new ArrayList<>());
+        } catch (IOException e) {
+            // appending to a StringBuilder never fails
+            throw new UncheckedIOException(e);
         }
+    }
+
+    /**
+     * Writes a formatted LIST descendents output depth first.
+     * @param descendants set from which to write a portion of the output.
+     * @param level the level at which the descendents sit.
+     * @param out the output written to.
+     * @param indents the indentation of each level written so far.
+     * @throws IOException if writing to the output fails.
+     */
+    protected void writePrintString(final NavigableSet<FileSystemItem> descendants,
+                                    final int level,
+                                    final Appendable out,
+                                    final List<String> indents)
+            throws IOException {
+        writeItems(descendants, level, out, indents);
+    }
 
-        return indent.toString();
+    private void writeItems(final Collection<FileSystemItem> items,
+                            final int level,
+                            final Appendable out,
+                            final List<String> indents)
+            throws IOException {
+        final TreeWalker walker;
+        walker = new TreeWalker(items, TreeWalker.Order.PRE_ORDER,
+                Integer.MAX_VALUE);
+        for (FileSystemItem item = walker.next(); item != null; item = walker.next()) {
+            final int itemLevel = level + walker.depth() - 1;
+            while (indents.size() <= itemLevel) {
+                indents.add(getLevelIndentation(indents.size(), "  "));
+            }
+            out.append(indents.get(itemLevel)).append(item.getName()).append('\n');
+        }
     }
 
     /**
@@ -86,93 +676,319 @@ public class FileSystem {
      * @return either and error if something foes wrong or a boolean
      * confirming the creating was successful.
      */
+    @Override
     public final Either<Exception, Boolean> mkdir(final String path) {
-        final String[] dirNames = path.split("/");
-        final String[] invDirNames = getInvalidDirectoryNames(dirNames);
+        return mkdir(JimPath.of(path), null);
+    }
+
+    /**
+     * Creates a new directory in the location specified. Does nothing if the
+     * directory already exist.
+     * @param path the parsed path of the directory.
+     * @return either and error if something foes wrong or a boolean
+     * confirming the creating was successful.
+     */
+    public final Either<Exception, Boolean> mkdir(final JimPath path) {
+        return mkdir(path, null);
+    }
+
+    private Either<Exception, Boolean> mkdir(final JimPath path,
+                                             final PathCursor cursor) {
+        final String[] invDirNames = path.getInvalidDirectoryNames(this);
 
         // has invalid directory
         if (invDirNames.length > 0 || path.isEmpty()) {
-            final String joinInvDirNames;
-            joinInvDirNames = path.isEmpty() ? "" : join(" ", invDirNames);
-            String fMsg = "Invalid directory name(s): [%s]";
-            final String message = format(fMsg, joinInvDirNames);
-            return Either.left(new IllegalArgumentException(message));
+            return Either.left(invalidNamesError(path.toString(), invDirNames));
+        }
+
+        final boolean indexed = cursor == null && pathIndex != null;
+        if (indexed && pathIndex.get(path) != null) {
+            return SUCCESS;
         }
 
         // is valid directory name
-        Directory prevDirectory = root;
-        for (final String dirName : dirNames) {
-            Directory foundDir = (Directory) prevDirectory.findChild(dirName);
+        final long epoch = indexed ? pathIndex.epoch() : 0;
+        final int start = cursor == null ? 0 : cursor.seek(path);
+        Directory prevDirectory = cursor == null ? root : cursor.directoryAt(start);
+        for (int i = start; i < path.length(); i++) {
+            final String key = path.getKey(i);
+            Directory foundDir = (Directory) prevDirectory.findChildByKey(key);
             if (foundDir == null) {
-                final Directory newDirectory;
-                newDirectory = new Directory(dirName, prevDirectory);
-                prevDirectory.addChildItem(newDirectory);
-                prevDirectory = newDirectory;
-            } else {
-                prevDirectory = foundDir;
+                foundDir = addDirectory(prevDirectory, path.getName(i), key);
+            }
+            if (cursor != null) {
+                cursor.enter(i, path.getName(i), foundDir);
             }
+            prevDirectory = foundDir;
+        }
+
+        if (indexed) {
+            pathIndex.put(path, prevDirectory, epoch);
         }
+        return SUCCESS;
+    }
+
+    private Directory addDirectory(final Directory parent,
+                                   final String dirName,
+                                   final String key) {
+        locks.lock(parent);
+        try {
+            // another writer may have created it since it was looked up
+            final Directory existing = (Directory) parent.findChildByKey(key);
+            if (existing != null) {
+                return existing;
+            }
 
-        return Either.right(true);
+            final Directory newDirectory = new Directory(dirName, parent);
+            parent.addChildItem(newDirectory);
+            return newDirectory;
+        } finally {
+            locks.unlock(parent);
+        }
     }
 
     /**
-     * Move a directory from one path to another.
+     * Move a directory from one path to another. The move is rejected if
+     * the destination is the source or one of its descendants, which would
+     * detach them in a cycle, or if the destination already has a child
+     * with the name of the source. It takes time proportional to the depth
+     * of the source and the destination, and only waits for writers within
+     * the directories between the destination and the parent of the
+     * source.
      * @param srcPath of the directory that will be moved
      * @param destPath of the directory that will receive the source directory
      * @return either an exception or a boolean indicate a successful move
      */
+    @Override
     public final Either<Exception, Boolean> mv(final String srcPath,
                                                final String destPath) {
-        if (srcPath.equals(destPath)) {
-            final String msgFmt = "Cannot move [%s] to [%s] - source and destination is the same";
-            final String msg = format(msgFmt, srcPath, destPath);
-            return Either.left(new IllegalArgumentException(msg));
-        }
+        return mv(JimPath.of(srcPath), JimPath.of(destPath), null);
+    }
 
-        final String[] srcDirNames = srcPath.split("/");
-        if (srcDirNames.length <= 0) {
-            final String msgFmt = "Cannot move [%s] to [%s] - no source directory provided";
-            final String msg = format(msgFmt, srcPath, destPath);
-            return Either.left(new IllegalArgumentException(msg));
-        }
+    /**
+     * Move a directory from one path to another.
+     * @param src the parsed path of the directory that will be moved
+     * @param dest the parsed path of the directory that will receive the
+     *             source directory
+     * @return either an exception or a boolean indicate a successful move
+     */
+    public final Either<Exception, Boolean> mv(final JimPath src,
+                                               final JimPath dest) {
+        return mv(src, dest, null);
+    }
 
-        final String[] dstDirNames = destPath.split("/");
-        if (dstDirNames.length <= 0) {
-            final String msgFmt = "Cannot move [%s] to [%s] - no destination directory provided";
-            final String msg = format(msgFmt, srcPath, destPath);
-            return Either.left(new IllegalArgumentException(msg));
+    private Either<Exception, Boolean> mv(final JimPath src,
+                                          final JimPath dest,
+                                          final PathCursor cursor) {
+        final String srcPath = src.toString();
+        final String destPath = dest.toString();
+        final Exception pathsError;
+        pathsError = checkMovePaths(srcPath, destPath,
+                src.getDirNames(), dest.getDirNames());
+        if (pathsError != null) {
+            return Either.left(pathsError);
         }
 
-        final Either<Exception, Directory> srcDirNodeEither;
-        srcDirNodeEither = findDirectory(srcDirNames);
-        if (srcDirNodeEither.isLeft()) {
-            return createFindDirError(srcPath, destPath, srcDirNodeEither);
-        }
+        while (true) {
+            final Either<Exception, Directory> srcDirNodeEither;
+            srcDirNodeEither = findDirectory(src, cursor);
+            if (srcDirNodeEither.isLeft()) {
+                return createFindDirError(srcPath, destPath, srcDirNodeEither);
+            }
+
+            final Either<Exception, Directory> destDirNodeEither;
+            destDirNodeEither = findDirectory(dest, cursor);
+            if (destDirNodeEither.isLeft()) {
+                return createFindDirError(srcPath, destPath, destDirNodeEither);
+            }
+
+            final Directory srcDir = srcDirNodeEither.get();
+            final Directory srcParent = srcDir.getParent();
+            final Directory destDir = destDirNodeEither.get();
+            if (srcParent == null) {
+                // another writer is moving or deleting the source
+                continue;
+            }
+            final List<Directory> chain = linkChain(srcParent, destDir);
+            final int[] locked = lockLink(srcDir, srcParent, chain);
+            if (locked == null) {
+                // another writer moved or deleted the source or an
+                // ancestor of the destination since they were looked up
+                continue;
+            }
 
-        final Either<Exception, Directory> destDirNodeEither;
-        destDirNodeEither = findDirectory(dstDirNames);
-        if (destDirNodeEither.isLeft()) {
-            return createFindDirError(srcPath, destPath, destDirNodeEither);
+            try {
+                if (chain.contains(srcDir)) {
+                    final String reason = "destination is inside the source";
+                    return Either.left(moveError(srcPath, destPath, reason));
+                }
+
+                final FileSystemItem existing;
+                existing = destDir.findChild(srcDir.getName());
+                if (existing == srcDir) {
+                    return SUCCESS;
+                } else if (existing != null) {
+                    final FsError reason;
+                    reason = alreadyExistsError(srcDir.getName());
+                    return Either.left(moveError(srcPath, destPath, reason));
+                }
+
+                invalidatePaths(srcDir);
+                srcParent.unlinkItem(srcDir);
+                srcDir.setParent(destDir);
+                destDir.addChildItem(srcDir);
+                invalidatePaths(srcDir);
+                if (cursor != null) {
+                    cursor.reset();
+                }
+                return SUCCESS;
+            } finally {
+                locks.unlock(locked);
+            }
         }
+    }
 
-        Directory srcDir = srcDirNodeEither.get();
-        srcDir.getParent().deleteItem(srcDir);
+    /**
+     * Collects the directories a move or a copy locks so that no other
+     * move can put the destination inside the source while it links: the
+     * destination and its ancestors up to the lowest one it shares with
+     * the parent of the source, and that parent. A move that would change
+     * where the destination sits below that ancestor must lock one of
+     * them, while moves elsewhere in the tree lock none of them.
+     * @param srcParent the parent of the source.
+     * @param destDir the destination.
+     * @return the directories, the destination first.
+     */
+    private static List<Directory> linkChain(final Directory srcParent,
+                                             final Directory destDir) {
+        final Set<Directory> srcAncestors;
+        srcAncestors = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Directory d = srcParent; d != null; d = d.getParent()) {
+            srcAncestors.add(d);
+        }
 
-        Directory destDir = destDirNodeEither.get();
-        destDir.addChildItem(srcDir);
+        final List<Directory> chain = new ArrayList<>();
+        Directory d = destDir;
+        while (d != null && !srcAncestors.contains(d)) {
+            chain.add(d);
+            d = d.getParent();
+        }
+        if (d != null) {
+            chain.add(d);
+        }
+        if (d != srcParent) {
+            chain.add(srcParent);
+        }
+        return chain;
+    }
 
-        return Either.right(true);
+    /**
+     * Locks the directories of a move or a copy, see
+     * {@link #linkChain(Directory, Directory)}, and checks that none of
+     * them moved since they were collected.
+     * @param srcDir the source.
+     * @param srcParent the parent of the source when it was looked up.
+     * @param chain the directories collected.
+     * @return the stripes locked, or null if the source or one of the
+     * directories moved and nothing is locked.
+     */
+    private int[] lockLink(final Directory srcDir,
+                           final Directory srcParent,
+                           final List<Directory> chain) {
+        final int[] locked = locks.lock(chain);
+        final List<Directory> current = linkChain(srcParent, chain.get(0));
+        boolean same = srcDir.getParent() == srcParent
+                && current.size() == chain.size();
+        for (int i = 0; same && i < chain.size(); i++) {
+            same = current.get(i) == chain.get(i);
+        }
+        if (same) {
+            return locked;
+        }
+        locks.unlock(locked);
+        return null;
     }
 
     private Either<Exception, Boolean> createFindDirError(
             final String srcPath,
             final String destPath,
             final Either<Exception, Directory> destDirNodeEither) {
-        final String findErrMsg = destDirNodeEither.left().get().getMessage();
-        final String msgFmt = "Cannot move [%s] to [%s] - %s";
-        final String msg = format(msgFmt, srcPath, destPath, findErrMsg);
-        return Either.left(new IllegalArgumentException(msg));
+        return Either.left(moveError(srcPath, destPath,
+                destDirNodeEither.getLeft()));
+    }
+
+    /**
+     * Copies a directory and its descendants into another directory. The
+     * copy is made in constant time and shares the descendants of the
+     * source until either side changes, see {@link Directory#copyTo}. A
+     * copy made while another thread changes the source may include some
+     * of those changes.
+     * @param srcPath of the directory that will be copied.
+     * @param destPath of the directory that will receive the copy.
+     * @return either an exception or a boolean indicating a successful copy.
+     */
+    @Override
+    public final Either<Exception, Boolean> cp(final String srcPath,
+                                               final String destPath) {
+        return cp(JimPath.of(srcPath), JimPath.of(destPath), null);
+    }
+
+    private Either<Exception, Boolean> cp(final JimPath src,
+                                          final JimPath dest,
+                                          final PathCursor cursor) {
+        final String srcPath = src.toString();
+        final String destPath = dest.toString();
+        if (src.length() <= 0) {
+            final String reason = "no source directory provided";
+            return Either.left(copyError(srcPath, destPath, reason));
+        }
+        if (dest.length() <= 0) {
+            final String reason = "no destination directory provided";
+            return Either.left(copyError(srcPath, destPath, reason));
+        }
+
+        while (true) {
+            final Either<Exception, Directory> srcEither;
+            srcEither = findDirectory(src, cursor);
+            if (srcEither.isLeft()) {
+                return Either.left(copyError(srcPath, destPath, srcEither.getLeft()));
+            }
+            final Either<Exception, Directory> destEither;
+            destEither = findDirectory(dest, cursor);
+            if (destEither.isLeft()) {
+                return Either.left(copyError(srcPath, destPath, destEither.getLeft()));
+            }
+
+            final Directory srcDir = srcEither.get();
+            final Directory srcParent = srcDir.getParent();
+            final Directory destDir = destEither.get();
+            if (srcParent == null) {
+                // another writer is moving or deleting the source
+                continue;
+            }
+            final List<Directory> chain = linkChain(srcParent, destDir);
+            final int[] locked = lockLink(srcDir, srcParent, chain);
+            if (locked == null) {
+                // another writer moved or deleted the source or an
+                // ancestor of the destination since they were looked up
+                continue;
+            }
+
+            try {
+                if (chain.contains(srcDir)) {
+                    final String reason = "destination is inside the source";
+                    return Either.left(copyError(srcPath, destPath, reason));
+                }
+                if (destDir.findChild(srcDir.getName()) != null) {
+                    final FsError reason = alreadyExistsError(srcDir.getName());
+                    return Either.left(copyError(srcPath, destPath, reason));
+                }
+                destDir.addChildItem(srcDir.copyTo(destDir));
+                return SUCCESS;
+            } finally {
+                locks.unlock(locked);
+            }
+        }
     }
 
     /**
@@ -182,68 +998,510 @@ public class FileSystem {
      * @return either an exception or a boolean indication successful
      * deletion.
      */
+    @Override
     public final Either<Exception, Boolean> rm(final String path) {
-        final String[] dirNames = path.split("/");
-
-        if (dirNames.length <= 0) {
-            final String msg = "Directory name required.";
-            final IllegalArgumentException exception;
-            exception = new IllegalArgumentException(msg);
-            return Either.left(exception);
-        }
+        return rm(JimPath.of(path), null);
+    }
 
+    /**
+     * Remove/Delete a directory.
+     * @param path the parsed path of the directory to delete. In a multi
+     *             node path the last directory is removed.
+     * @return either an exception or a boolean indication successful
+     * deletion.
+     */
+    public final Either<Exception, Boolean> rm(final JimPath path) {
+        return rm(path, null);
+    }
 
-        final Either<Exception, Directory> dirNodeEither;
-        dirNodeEither = findDirectory(dirNames);
-        if (dirNodeEither.isLeft()) {
-            final String findErrorMessage;
-            findErrorMessage = dirNodeEither.left().get().getMessage();
-            final String msg = "Cannot delete %s - %s";
-            final String message = format(msg, path, findErrorMessage);
-            return Either.left(new IllegalArgumentException(message));
+    private Either<Exception, Boolean> rm(final JimPath path,
+                                          final PathCursor cursor) {
+        if (path.length() <= 0) {
+            return Either.left(nameRequiredError());
         }
 
-        final Directory directory = dirNodeEither.right().get();
-        directory.getParent().deleteItem(directory);
+        while (true) {
+            final Either<Exception, Directory> dirNodeEither;
+            dirNodeEither = findDirectory(path, cursor);
+            if (dirNodeEither.isLeft()) {
+                return Either.left(deleteError(path, dirNodeEither.getLeft()));
+            }
 
-        return Either.right(true);
+            final Directory directory = dirNodeEither.right().get();
+            final Directory parent = directory.getParent();
+            locks.lock(parent);
+            try {
+                invalidatePaths(directory);
+                // retry if another writer moved or deleted the directory
+                // since it was looked up
+                if (directory.getParent() == parent
+                        && parent.deleteItem(directory)) {
+                    invalidatePaths(directory);
+                    if (pathIndex != null) {
+                        pathIndex.remove(path);
+                    }
+                    if (cursor != null) {
+                        cursor.truncate(path.length() - 1);
+                    }
+                    return SUCCESS;
+                }
+            } finally {
+                locks.unlock(parent);
+            }
+        }
     }
 
     protected final Either<Exception, Directory> findDirectory(
             final String[] dirNames) {
         Directory current = root;
         for (String dirName : dirNames) {
-            final Directory child = (Directory) current.findChild(dirName);
+            final Directory child;
+            child = (Directory) current.findChildByKey(Directory.foldName(dirName));
             if (child == null) {
-                final String message = format("%s does not exist", dirName);
-                return Either.left(new IllegalArgumentException(message));
+                return Either.left(notFoundError(dirName));
             }
             current = child;
         }
         return Either.right(current);
     }
 
-    protected final String[] getInvalidDirectoryNames(final String[] dns) {
-        return Arrays.stream(dns)
-                .filter(dn -> hasInvalidCharacters(dn, DIR_INVALID_CHARS))
-                .toArray(String[]::new);
+    private Either<Exception, Directory> findDirectory(
+            final JimPath path,
+            final PathCursor cursor) {
+        if (cursor == null && pathIndex != null) {
+            final Directory indexed = pathIndex.get(path);
+            if (indexed != null) {
+                return Either.right(indexed);
+            }
+
+            final long epoch = pathIndex.epoch();
+            final Either<Exception, Directory> found = walk(path, null);
+            if (found.isRight()) {
+                pathIndex.put(path, found.get(), epoch);
+            }
+            return found;
+        }
+        return walk(path, cursor);
     }
 
-    protected final boolean hasInvalidCharacters(final String dn,
-                                                 final String ... s) {
-        return !hasNoInvalidCharacters(dn, s);
+    private Either<Exception, Directory> walk(final JimPath path,
+                                              final PathCursor cursor) {
+        final int start = cursor == null ? 0 : cursor.seek(path);
+        Directory current = cursor == null ? root : cursor.directoryAt(start);
+        for (int i = start; i < path.length(); i++) {
+            final Directory child;
+            child = (Directory) current.findChildByKey(path.getKey(i));
+            if (child == null) {
+                return Either.left(notFoundError(path.getName(i)));
+            }
+            if (cursor != null) {
+                cursor.enter(i, path.getName(i), child);
+            }
+            current = child;
+        }
+        return Either.right(current);
     }
 
-    protected final boolean hasNoInvalidCharacters(final String dn,
-                                                   final String ... s) {
-        final Stream<String> stream = Arrays.stream(s);
-        final Stream<String> stringStream = stream.filter(dn::contains);
-        final List<String> strings = stringStream.collect(toList());
-        return strings.isEmpty();
+    /**
+     * Finds the directories with a name below a directory, ignoring case.
+     * @param path of the directory to search, the root if empty.
+     * @param name of the directories to find.
+     * @return either an error or the paths of the directories found, depth
+     * first with the children of each directory in name order.
+     */
+    public final Either<Exception, List<String>> find(final String path,
+                                                      final String name) {
+        final List<String> names = new ArrayList<>();
+        final Either<Exception, Directory> found = findFrom(path, names);
+        if (found.isLeft()) {
+            return Either.left(found.getLeft());
+        }
+
+        final List<String> paths = new ArrayList<>();
+        if (!indexNames) {
+            // the items below a copy may be those of its template, so the
+            // paths are those walked rather than those of their parents
+            final int start = names.size();
+            final TreeWalker walker = new TreeWalker(
+                    found.get().getDescendants(), TreeWalker.Order.PRE_ORDER,
+                    Integer.MAX_VALUE);
+            for (FileSystemItem item = walker.next(); item != null; item = walker.next()) {
+                names.subList(start + walker.depth() - 1, names.size()).clear();
+                names.add(item.getName());
+                if (item.getName().equalsIgnoreCase(name)) {
+                    paths.add(String.join("/", names));
+                }
+            }
+            return Either.right(paths);
+        }
+
+        final Deque<String> itemNames = new ArrayDeque<>();
+        for (FileSystemItem item : found.get().findDescendantsByName(name)) {
+            itemNames.clear();
+            itemNames.push(item.getName());
+            for (Directory d = item.getParent();
+                 d != root && d != null;
+                 d = d.getParent()) {
+                itemNames.push(d.getName());
+            }
+            paths.add(String.join("/", itemNames));
+        }
+        return Either.right(paths);
     }
 
-    protected final String[] getDirInvalidChars() {
-        return DIR_INVALID_CHARS;
+    /**
+     * Finds the directory a read starts from, without giving copies along
+     * the path children of their own.
+     * @param path of the directory, the root if empty.
+     * @return either an error or the directory.
+     */
+    private Either<Exception, Directory> findFrom(final String path) {
+        return findFrom(path, null);
     }
 
+    /**
+     * Finds the directory a read starts from, without giving copies along
+     * the path children of their own.
+     * @param path of the directory, the root if empty.
+     * @param names collects the names along the path if not null.
+     * @return either an error or the directory.
+     */
+    private Either<Exception, Directory> findFrom(final String path,
+                                                  final List<String> names) {
+        if (path.isEmpty()) {
+            return Either.right(root);
+        }
+
+        final JimPath jimPath = JimPath.of(path);
+        final Directory indexed = pathIndex != null ? pathIndex.get(jimPath) : null;
+        if (indexed != null) {
+            if (names != null) {
+                for (Directory d = indexed; d != root && d != null; d = d.getParent()) {
+                    names.add(d.getName());
+                }
+                Collections.reverse(names);
+            }
+            return Either.right(indexed);
+        }
+
+        Directory current = root;
+        for (int i = 0; i < jimPath.length(); i++) {
+            final Directory child;
+            child = (Directory) current.findChild(jimPath.getName(i));
+            if (child == null) {
+                return Either.left(notFoundError(jimPath.getName(i)));
+            }
+            if (names != null) {
+                names.add(child.getName());
+            }
+            current = child;
+        }
+        return Either.right(current);
+    }
+
+    /**
+     * Lists a page of the descendants of a directory, in {@link #ls()}
+     * order. The cursor of a page holds the path of its last line, so the
+     * next page seeks to it in the sorted children of each directory on
+     * that path rather than listing the pages before it again. A page
+     * resumed after a concurrent change continues after the last line
+     * listed, even if that directory was deleted since.
+     * @param path of the directory to list, the root if empty.
+     * @param maxDepth the deepest level listed, 1 for the children only.
+     * @param pageSize the most lines listed.
+     * @param cursor the cursor of the previous page, null or empty for the
+     *               first page.
+     * @return either an error or the page.
+     */
+    public final Either<Exception, ListingPage> lsPage(final String path,
+                                                       final int maxDepth,
+                                                       final int pageSize,
+                                                       final String cursor) {
+        if (maxDepth < 1 || pageSize < 1) {
+            return Either.left(new IllegalArgumentException(
+                    "The depth and page size must be positive."));
+        }
+        final String[] after;
+        try {
+            after = decodeCursor(cursor);
+        } catch (IllegalArgumentException e) {
+            return Either.left(new IllegalArgumentException("Invalid cursor."));
+        }
+        final Either<Exception, Directory> found = findFrom(path);
+        if (found.isLeft()) {
+            return Either.left(found.getLeft());
+        }
+
+        // the siblings still to list at each level, deepest on top
+        final Deque<Iterator<FileSystemItem>> stack = new ArrayDeque<>();
+        final List<String> names = new ArrayList<>();
+        Directory dir = found.get();
+        for (String name : after) {
+            stack.push(dir.getDescendants().tailSet(probe(name), false)
+                    .iterator());
+            final FileSystemItem child = dir.findChild(name);
+            if (child == null || !child.getName().equals(name)) {
+                dir = null;
+                break;
+            }
+            names.add(name);
+            dir = (Directory) child;
+        }
+        if (dir != null && stack.size() < maxDepth) {
+            stack.push(dir.getDescendants().iterator());
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        int size = 0;
+        while (size < pageSize && !stack.isEmpty()) {
+            final Iterator<FileSystemItem> siblings = stack.peek();
+            if (!siblings.hasNext()) {
+                stack.pop();
+                continue;
+            }
+
+            final FileSystemItem item = siblings.next();
+            final int level = stack.size() - 1;
+            names.subList(level, names.size()).clear();
+            names.add(item.getName());
+            sb.append("  ".repeat(level)).append(item.getName()).append('\n');
+            size++;
+            if (stack.size() < maxDepth) {
+                stack.push(((Directory) item).getDescendants().iterator());
+            }
+        }
+
+        while (!stack.isEmpty() && !stack.peek().hasNext()) {
+            stack.pop();
+        }
+        final String next = stack.isEmpty() ? null : encodeCursor(names);
+        return Either.right(new ListingPage(sb.toString(), size, next));
+    }
+
+    /**
+     * Lists the descendants of a directory down to a depth, formatted as by
+     * {@link #ls()} with the children of the directory at level 0. With a
+     * filter, only the directories whose names match are listed and
+     * descended into, and the children of each directory are read from the
+     * range of names starting with the literal prefix of the filter.
+     * @param path of the directory to list, the root if empty.
+     * @param maxDepth the deepest level listed, 1 for the children only.
+     * @param filter the pattern of the names listed, null to list all.
+     * @return either an error or the listing.
+     */
+    @Override
+    public final Either<Exception, String> ls(final String path,
+                                              final int maxDepth,
+                                              final Glob filter) {
+        if (maxDepth < 1) {
+            return Either.left(new IllegalArgumentException(
+                    "The depth must be positive."));
+        }
+        final Either<Exception, Directory> found = findFrom(path);
+        if (found.isLeft()) {
+            return Either.left(found.getLeft());
+        }
+
+        final List<String> indents = new ArrayList<>();
+        final Deque<Iterator<FileSystemItem>> stack = new ArrayDeque<>();
+        final StringBuilder sb = new StringBuilder();
+        stack.push(select(found.get(), filter).iterator());
+        while (!stack.isEmpty()) {
+            final Iterator<FileSystemItem> siblings = stack.peek();
+            if (!siblings.hasNext()) {
+                stack.pop();
+                continue;
+            }
+
+            final FileSystemItem item = siblings.next();
+            if (filter != null && !filter.matches(item.getName())) {
+                continue;
+            }
+            final int level = stack.size() - 1;
+            while (indents.size() <= level) {
+                indents.add(getLevelIndentation(indents.size(), "  "));
+            }
+            sb.append(indents.get(level)).append(item.getName()).append('\n');
+            if (stack.size() < maxDepth) {
+                stack.push(select((Directory) item, filter).iterator());
+            }
+        }
+        return Either.right(sb.toString());
+    }
+
+    /**
+     * Selects the children of a directory that may match a filter: those
+     * whose names start with its literal prefix.
+     * @param dir the directory.
+     * @param filter the filter, null to select all the children.
+     * @return the children selected.
+     */
+    private static NavigableSet<FileSystemItem> select(final Directory dir,
+                                                       final Glob filter) {
+        final NavigableSet<FileSystemItem> children = dir.getDescendants();
+        final String prefix = filter == null ? "" : filter.getLiteralPrefix();
+        if (prefix.isEmpty()) {
+            return children;
+        }
+        if (filter.isLiteral()) {
+            return children.subSet(probe(prefix), true, probe(prefix), true);
+        }
+
+        final int last = prefix.length() - 1;
+        final char end = prefix.charAt(last);
+        if (end == Character.MAX_VALUE) {
+            return children.tailSet(probe(prefix), true);
+        }
+        final String upper = prefix.substring(0, last) + (char) (end + 1);
+        return children.subSet(probe(prefix), true, probe(upper), false);
+    }
+
+    /**
+     * Creates a directory to seek to a name in sorted children.
+     * @param name the name.
+     * @return a directory with the name and no parent.
+     */
+    private static Directory probe(final String name) {
+        return new Directory(name, null, false, null);
+    }
+
+    /**
+     * Encodes the path of the last line of a page as a cursor.
+     * @param names the names of the path.
+     * @return the cursor.
+     */
+    private static String encodeCursor(final List<String> names) {
+        final byte[] path = String.join("/", names)
+                .getBytes(StandardCharsets.UTF_8);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(path);
+    }
+
+    /**
+     * Decodes the path of the last line of a page from its cursor.
+     * @param cursor the cursor, null or empty before the first page.
+     * @return the names of the path.
+     * @throws IllegalArgumentException if the cursor is not one of ours.
+     */
+    private static String[] decodeCursor(final String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return new String[0];
+        }
+        final String path = new String(Base64.getUrlDecoder().decode(cursor),
+                StandardCharsets.UTF_8);
+        final String[] names = path.split("/", -1);
+        for (String name : names) {
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException(cursor);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Invalidates the indexed paths through a directory, if paths are
+     * indexed, before and after it is moved or deleted.
+     * @param directory the directory moved or deleted.
+     */
+    private void invalidatePaths(final Directory directory) {
+        if (pathIndex != null) {
+            pathIndex.invalidate(directory);
+        }
+    }
+
+    /**
+     * Applies a batch of commands in order. Consecutive paths that share a
+     * prefix, such as a/b/c/d1 and a/b/c/d2, only resolve the shared
+     * directories once. A concurrent FileSystem resolves every path from
+     * the root as other writers may change the shared directories between
+     * commands.
+     * @param commands the commands to apply.
+     * @return the result of each command, in the order of the commands.
+     */
+    public final List<Either<Exception, Boolean>> apply(
+            final List<Command> commands) {
+        final PathCursor cursor = isConcurrent() ? null : new PathCursor(root);
+        final List<Either<Exception, Boolean>> results;
+        results = new ArrayList<>(commands.size());
+        for (Command command : commands) {
+            switch (command.getType()) {
+                case CREATE:
+                    results.add(mkdir(JimPath.of(command.getPath()), cursor));
+                    break;
+                case DELETE:
+                    results.add(rm(JimPath.of(command.getPath()), cursor));
+                    break;
+                case COPY:
+                    results.add(cp(JimPath.of(command.getPath()),
+                            JimPath.of(command.getDestPath()), cursor));
+                    break;
+                default:
+                    final JimPath src = JimPath.of(command.getPath());
+                    final JimPath dest = JimPath.of(command.getDestPath());
+                    results.add(mv(src, dest, cursor));
+                    break;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Remembers the directories of the last path resolved by a batch.
+     */
+    private static final class PathCursor {
+
+        /**
+         * The directory names of the last path resolved.
+         */
+        private String[] dirNames = new String[8];
+        /**
+         * The root followed by the directory of each name.
+         */
+        private Directory[] directories = new Directory[9];
+        /**
+         * The number of names that are still valid.
+         */
+        private int depth;
+
+        PathCursor(final Directory root) {
+            directories[0] = root;
+        }
+
+        /**
+         * Drops the names the path does not share with the last one.
+         * @param path the path to resolve.
+         * @return the number of leading names shared.
+         */
+        int seek(final JimPath path) {
+            final int limit = Math.min(depth, path.length());
+            int shared = 0;
+            while (shared < limit
+                    && path.getName(shared).equals(dirNames[shared])) {
+                shared++;
+            }
+            depth = shared;
+            return shared;
+        }
+
+        Directory directoryAt(final int index) {
+            return directories[index];
+        }
+
+        void enter(final int index, final String name, final Directory dir) {
+            if (index >= dirNames.length) {
+                dirNames = Arrays.copyOf(dirNames, dirNames.length * 2);
+                directories = Arrays.copyOf(directories, dirNames.length + 1);
+            }
+            dirNames[index] = name;
+            directories[index + 1] = dir;
+            depth = index + 1;
+        }
+
+        void truncate(final int index) {
+            depth = Math.min(depth, index);
+        }
+
+        void reset() {
+            depth = 0;
+        }
+    }
 }
@@ -0,0 +1,461 @@
+package com.endponts.jimfs;
+
+import io.vavr.control.Either;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A read-only {@link FileSystem} tree stored in a flat binary file that is
+ * memory mapped rather than loaded, so opening it takes the same time
+ * whatever the size of the tree.
+ *
+ * <p>The file holds a header, a node table, a key order table and a name
+ * pool. Nodes are numbered breadth first from the root, node 0, so that
+ * the children of a node are the contiguous range given by its first
+ * child and child count, in {@link #ls()} order. Each node table entry
+ * holds the offset and length of its UTF-8 name and of its folded name
+ * in the pool. The key order table lists each range of children sorted
+ * by folded name, which lets lookups ignore case with a binary search.</p>
+ *
+ * <p>Opening an image checks that its tables fit in the file, and every
+ * offset, length and node number is checked against them when it is
+ * read, so a corrupt image fails with an {@link UncheckedIOException}
+ * rather than reading outside its tables.</p>
+ * @author mw
+ * @version 0.9
+ */
+public final class FileSystemImage implements DirectoryTree {
+
+    /**
+     * The first bytes of an image, "JFSI".
+     */
+    private static final int MAGIC = 0x4A465349;
+    /**
+     * The version of the image format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * The size of the header: magic, version and node count.
+     */
+    private static final int HEADER_SIZE = 12;
+    /**
+     * The size of a node table entry: name offset and length, key offset
+     * and length, first child and child count.
+     */
+    private static final int NODE_SIZE = 24;
+
+    /**
+     * The mapped image.
+     */
+    private final ByteBuffer image;
+    /**
+     * The number of nodes, including the root.
+     */
+    private final int nodeCount;
+    /**
+     * The offset of the key order table.
+     */
+    private final int keyOrderBase;
+    /**
+     * The offset of the name pool.
+     */
+    private final int poolBase;
+    /**
+     * The size of the name pool.
+     */
+    private final int poolSize;
+
+    private FileSystemImage(final ByteBuffer image) throws IOException {
+        this.image = image;
+        if (image.limit() < HEADER_SIZE
+                || image.getInt(0) != MAGIC
+                || image.getInt(4) != VERSION) {
+            throw new IOException("Not a file system image");
+        }
+        nodeCount = image.getInt(8);
+        final long pool = HEADER_SIZE + (long) nodeCount * (NODE_SIZE + 4);
+        if (nodeCount < 1 || pool > image.limit()) {
+            throw new IOException("Corrupt file system image");
+        }
+        keyOrderBase = HEADER_SIZE + nodeCount * NODE_SIZE;
+        poolBase = (int) pool;
+        poolSize = image.limit() - poolBase;
+    }
+
+    /**
+     * Writes the tree of a file system to an image file. The tree must not
+     * change while it is written. The image is written to a temporary file
+     * that then replaces the image file, so a crash leaves either the old
+     * image or the new one.
+     * @param fileSystem the file system.
+     * @param file the image file, replaced if it exists.
+     * @throws IOException if the image cannot be written.
+     */
+    public static void write(final FileSystem fileSystem, final Path file)
+            throws IOException {
+        final List<Directory> nodes = new ArrayList<>();
+        nodes.add(fileSystem.getRoot());
+        final ByteArrayOutputStream names = new ByteArrayOutputStream();
+        int[] entries = new int[64];
+
+        for (int i = 0; i < nodes.size(); i++) {
+            if (entries.length < nodes.size() * 6) {
+                entries = Arrays.copyOf(entries,
+                        Math.max(nodes.size() * 6, entries.length * 2));
+            }
+
+            final Directory dir = nodes.get(i);
+            final String name = dir.getName();
+            final String key = Directory.foldName(name);
+            final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+
+            final int entry = i * 6;
+            entries[entry] = names.size();
+            entries[entry + 1] = nameBytes.length;
+            names.write(nameBytes);
+            if (key.equals(name)) {
+                entries[entry + 2] = entries[entry];
+                entries[entry + 3] = nameBytes.length;
+            } else {
+                final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+                entries[entry + 2] = names.size();
+                entries[entry + 3] = keyBytes.length;
+                names.write(keyBytes);
+            }
+            entries[entry + 4] = nodes.size();
+            for (FileSystemItem child : dir.getDescendants()) {
+                nodes.add((Directory) child);
+            }
+            entries[entry + 5] = nodes.size() - entries[entry + 4];
+        }
+
+        final int count = nodes.size();
+        final byte[] pool = names.toByteArray();
+        final long size = HEADER_SIZE + (long) count * (NODE_SIZE + 4)
+                + pool.length;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("The tree is too large for an image");
+        }
+
+        final int[] keyOrder = new int[count];
+        final int[] scratch = new int[count];
+        for (int i = 0; i < count; i++) {
+            final int first = entries[i * 6 + 4];
+            final int end = first + entries[i * 6 + 5];
+            for (int c = first; c < end; c++) {
+                keyOrder[c] = c;
+            }
+            sortByKey(keyOrder, scratch, first, end, entries, pool);
+        }
+
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            final DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(
+                            Channels.newOutputStream(channel), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            for (int i = 0; i < count * 6; i++) {
+                out.writeInt(entries[i]);
+            }
+            for (int node : keyOrder) {
+                out.writeInt(node);
+            }
+            out.write(pool);
+            out.flush();
+            channel.force(false);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Sorts a range of nodes by folded name, as unsigned bytes, with a
+     * merge sort that leaves sorted halves as they are.
+     * @param order the nodes.
+     * @param scratch a buffer as long as the nodes.
+     * @param from the first node of the range.
+     * @param to the end of the range.
+     * @param entries the node table.
+     * @param pool the name pool.
+     */
+    private static void sortByKey(final int[] order, final int[] scratch,
+                                  final int from, final int to,
+                                  final int[] entries, final byte[] pool) {
+        if (to - from < 2) {
+            return;
+        }
+        final int mid = (from + to) >>> 1;
+        sortByKey(order, scratch, from, mid, entries, pool);
+        sortByKey(order, scratch, mid, to, entries, pool);
+        if (compareKeys(order[mid - 1], order[mid], entries, pool) <= 0) {
+            return;
+        }
+
+        System.arraycopy(order, from, scratch, from, to - from);
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; i++) {
+            if (right == to || left < mid && compareKeys(scratch[left],
+                    scratch[right], entries, pool) <= 0) {
+                order[i] = scratch[left++];
+            } else {
+                order[i] = scratch[right++];
+            }
+        }
+    }
+
+    private static int compareKeys(final int a, final int b,
+                                   final int[] entries, final byte[] pool) {
+        final int aKey = entries[a * 6 + 2];
+        final int bKey = entries[b * 6 + 2];
+        return Arrays.compareUnsigned(pool, aKey, aKey + entries[a * 6 + 3],
+                pool, bKey, bKey + entries[b * 6 + 3]);
+    }
+
+    /**
+     * Maps an image file. Nodes are read from the mapping when they are
+     * looked up or listed.
+     * @param file the image file.
+     * @return the image.
+     * @throws IOException if the file cannot be mapped or is not an image.
+     */
+    public static FileSystemImage open(final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is not a file system image");
+            }
+            final MappedByteBuffer mapped = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new FileSystemImage(mapped);
+        }
+    }
+
+    /**
+     * Finds a directory of the image, ignoring case.
+     * @param path of the directory.
+     * @return either an error or the node of the directory.
+     */
+    public Either<Exception, Integer> findDirectory(final String path) {
+        final JimPath jimPath = JimPath.of(path);
+        int node = 0;
+        for (int i = 0; i < jimPath.length(); i++) {
+            final byte[] key = jimPath.getKey(i)
+                    .getBytes(StandardCharsets.UTF_8);
+            node = findChild(node, key);
+            if (node < 0) {
+                final String name = jimPath.getName(i);
+                return Either.left(AbstractDirectoryTree.notFoundError(name));
+            }
+        }
+        return Either.right(node);
+    }
+
+    /**
+     * Retrieves the name of a node.
+     * @param node the node.
+     * @return the name.
+     */
+    public String getName(final int node) {
+        final int entry = entry(node);
+        final int offset = image.getInt(entry);
+        final byte[] name = new byte[poolRange(offset, image.getInt(entry + 4))];
+        image.get(poolBase + offset, name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Retrieves the number of children of a node.
+     * @param node the node.
+     * @return the number of children.
+     */
+    public int getChildCount(final int node) {
+        final int entry = entry(node);
+        final int first = image.getInt(entry + 16);
+        final int count = image.getInt(entry + 20);
+        if (first < 0 || count < 0 || count > nodeCount - first) {
+            throw corrupt();
+        }
+        return count;
+    }
+
+    @Override
+    public String ls() {
+        final StringBuilder sb = new StringBuilder();
+        try {
+            ls(sb);
+        } catch (IOException e) {
+            // appending to a StringBuilder never fails
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void ls(final Appendable out) throws IOException {
+        final List<String> indents = new ArrayList<>();
+        int[] next = new int[16];
+        int[] end = new int[16];
+        next[0] = firstChild(0);
+        end[0] = next[0] + getChildCount(0);
+        int level = 0;
+        while (level >= 0) {
+            if (next[level] == end[level]) {
+                level--;
+                continue;
+            }
+
+            final int node = next[level]++;
+            while (indents.size() <= level) {
+                indents.add("  ".repeat(indents.size()));
+            }
+            out.append(indents.get(level)).append(getName(node)).append('\n');
+
+            final int children = getChildCount(node);
+            if (children > 0) {
+                level++;
+                if (level == next.length) {
+                    next = Arrays.copyOf(next, level * 2);
+                    end = Arrays.copyOf(end, level * 2);
+                }
+                next[level] = firstChild(node);
+                end[level] = next[level] + children;
+            }
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return getChildCount(0) == 0;
+    }
+
+    @Override
+    public Either<Exception, Boolean> mkdir(final String path) {
+        return Either.left(readOnlyError());
+    }
+
+    @Override
+    public Either<Exception, Boolean> mv(final String srcPath,
+                                         final String destPath) {
+        return Either.left(readOnlyError());
+    }
+
+    @Override
+    public Either<Exception, Boolean> rm(final String path) {
+        return Either.left(readOnlyError());
+    }
+
+    private static UnsupportedOperationException readOnlyError() {
+        return new UnsupportedOperationException("The image is read-only.");
+    }
+
+    /**
+     * Retrieves the first child of a node, whose children are checked to
+     * be nodes of the image by {@link #getChildCount(int)}.
+     * @param node the node.
+     * @return the first child.
+     */
+    private int firstChild(final int node) {
+        return image.getInt(entry(node) + 16);
+    }
+
+    /**
+     * Locates the node table entry of a node.
+     * @param node the node.
+     * @return the offset of the entry.
+     */
+    private int entry(final int node) {
+        if (node < 0 || node >= nodeCount) {
+            throw corrupt();
+        }
+        return HEADER_SIZE + node * NODE_SIZE;
+    }
+
+    /**
+     * Checks a range of the name pool.
+     * @param offset the offset of the range in the pool.
+     * @param length the length of the range.
+     * @return the length.
+     */
+    private int poolRange(final int offset, final int length) {
+        if (offset < 0 || length < 0 || length > poolSize - offset) {
+            throw corrupt();
+        }
+        return length;
+    }
+
+    private static UncheckedIOException corrupt() {
+        return new UncheckedIOException(
+                new IOException("Corrupt file system image"));
+    }
+
+    /**
+     * Finds a child by binary search over the key order of its siblings.
+     * @param parent the parent node.
+     * @param key the folded UTF-8 name of the child.
+     * @return the child node or -1 if there is none.
+     */
+    private int findChild(final int parent, final byte[] key) {
+        final int count = getChildCount(parent);
+        final int first = firstChild(parent);
+        int low = first;
+        int high = first + count - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int node = image.getInt(keyOrderBase + mid * 4);
+            final int cmp = compareKey(node, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return node;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compares the folded name of a node with a key, as unsigned bytes.
+     * @param node the node.
+     * @param key the key.
+     * @return the comparison of the folded name with the key.
+     */
+    private int compareKey(final int node, final byte[] key) {
+        final int entry = entry(node);
+        final int keyOffset = image.getInt(entry + 8);
+        final int length = poolRange(keyOffset, image.getInt(entry + 12));
+        final int offset = poolBase + keyOffset;
+        final int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            final int cmp = Byte.toUnsignedInt(image.get(offset + i))
+                    - Byte.toUnsignedInt(key[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.length;
+    }
+}
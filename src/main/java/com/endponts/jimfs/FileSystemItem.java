@@ -1,20 +1,29 @@
 package com.endponts.jimfs;
 
-import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Directory and file base class.
  */
 public abstract class FileSystemItem implements Comparable {
 
+    /**
+     * The id of the last item constructed.
+     */
+    private static final AtomicLong LAST_ID = new AtomicLong();
+
     /**
      * The item parent directory.
      */
-    private Directory parent;
+    private volatile Directory parent;
     /**
      * The item name.
      */
     private String name;
+    /**
+     * The item id, unique for the life of the JVM.
+     */
+    private final long id = LAST_ID.incrementAndGet();
 
     /**
      * Indicates whether the item is a directory or not.
@@ -52,6 +61,14 @@ public abstract class FileSystemItem implements Comparable {
         return parent;
     }
 
+    /**
+     * Re-links the item to a new parent directory.
+     * @param p the new parent directory.
+     */
+    protected void setParent(final Directory p) {
+        this.parent = p;
+    }
+
     /**
      * Retrieves the item name.
      * @return return the item name.
@@ -61,17 +78,26 @@ public abstract class FileSystemItem implements Comparable {
     }
 
     /**
-     * Indicates whether the item is equal to another object.
+     * Retrieves the item id, which stays the same when the item is moved.
+     * @return the item id.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Indicates whether the item is the same item as another object. Items
+     * with the same names and contents are compared with
+     * {@link FileSystemItems#deepEquals(FileSystemItem, FileSystemItem)}.
      * @param o the other object
-     * @return true if the item is equal to another object and false otherwise
+     * @return true if the other object is an item with the same id and false
+     * otherwise
      */
     @Override
     public boolean equals(final Object o) {
         if (this == o) return true;
         if (!(o instanceof FileSystemItem)) return false;
-        FileSystemItem that = (FileSystemItem) o;
-        return Objects.equals(getParent(), that.getParent())
-                && Objects.equals(getName(), that.getName());
+        return id == ((FileSystemItem) o).id;
     }
 
     /**
@@ -80,6 +106,6 @@ public abstract class FileSystemItem implements Comparable {
      */
     @Override
     public int hashCode() {
-        return Objects.hash(getName());
+        return Long.hashCode(id);
     }
 }
@@ -0,0 +1,98 @@
+package com.endponts.jimfs;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NavigableSet;
+
+/**
+ * Structural comparison of file system items. Unlike
+ * {@link FileSystemItem#equals(Object)}, which compares item ids, these
+ * compare names and whole subtrees and so take time proportional to the
+ * size of the subtrees.
+ * @author mw
+ * @version 0.9
+ */
+public final class FileSystemItems {
+
+    private FileSystemItems() {
+    }
+
+    /**
+     * Indicates whether two items have the same name and, for directories,
+     * descendants with the same names at the same places.
+     * @param a an item.
+     * @param b another item.
+     * @return true if the items are structurally equal and false otherwise.
+     */
+    public static boolean deepEquals(final FileSystemItem a,
+                                     final FileSystemItem b) {
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+        if (!sameNode(a, b)) return false;
+        if (!a.isDirectory()) return true;
+
+        final Deque<Iterator<FileSystemItem>> left = new ArrayDeque<>();
+        final Deque<Iterator<FileSystemItem>> right = new ArrayDeque<>();
+        left.push(((Directory) a).getDescendants().iterator());
+        right.push(((Directory) b).getDescendants().iterator());
+        while (!left.isEmpty()) {
+            final Iterator<FileSystemItem> l = left.peek();
+            final Iterator<FileSystemItem> r = right.peek();
+            if (l.hasNext() != r.hasNext()) return false;
+            if (!l.hasNext()) {
+                left.pop();
+                right.pop();
+                continue;
+            }
+
+            final FileSystemItem x = l.next();
+            final FileSystemItem y = r.next();
+            if (!sameNode(x, y)) return false;
+            if (x.isDirectory()) {
+                left.push(((Directory) x).getDescendants().iterator());
+                right.push(((Directory) y).getDescendants().iterator());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes a hash code consistent with
+     * {@link #deepEquals(FileSystemItem, FileSystemItem)}.
+     * @param item the item.
+     * @return the hash code of the item name and descendants.
+     */
+    public static int deepHashCode(final FileSystemItem item) {
+        if (item == null) return 0;
+
+        int hash = item.getName().hashCode();
+        if (!item.isDirectory()) return hash;
+
+        final Deque<Iterator<FileSystemItem>> stack = new ArrayDeque<>();
+        stack.push(((Directory) item).getDescendants().iterator());
+        while (!stack.isEmpty()) {
+            final Iterator<FileSystemItem> siblings = stack.peek();
+            if (!siblings.hasNext()) {
+                stack.pop();
+                hash = 31 * hash + 1;
+                continue;
+            }
+
+            final FileSystemItem child = siblings.next();
+            hash = 31 * hash + child.getName().hashCode();
+            if (child.isDirectory()) {
+                final NavigableSet<FileSystemItem> children;
+                children = ((Directory) child).getDescendants();
+                stack.push(children.iterator());
+            }
+        }
+        return hash;
+    }
+
+    private static boolean sameNode(final FileSystemItem a,
+                                    final FileSystemItem b) {
+        return a.isDirectory() == b.isDirectory()
+                && a.getName().equals(b.getName());
+    }
+}
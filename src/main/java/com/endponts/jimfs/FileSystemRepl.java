@@ -2,7 +2,16 @@ package com.endponts.jimfs;
 
 import io.vavr.control.Either;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Scanner;
 
 /**
@@ -13,157 +22,169 @@ import java.util.Scanner;
 @SuppressWarnings("InfiniteLoopStatement")
 public final class FileSystemRepl {
 
+    /**
+     * The command parser of each thread evaluating commands.
+     */
+    private static final ThreadLocal<CommandParser> PARSER =
+            ThreadLocal.withInitial(CommandParser::new);
+
     private FileSystemRepl() {
     }
 
     /**
-     * The entry point for the REPL.
+     * The entry point for the REPL. With {@code --port N} the commands are
+     * served over TCP instead, see {@link FileSystemServer}. With
+     * {@code --script file}, or when the input or output is not a
+     * terminal, the commands are run as a script, see {@link ScriptRunner},
+     * and the number of commands per second is reported on the standard
+     * error.
      * @param args from the command line.
+     * @throws IOException if the server cannot listen to the port or the
+     * script cannot be read.
      */
-    public static void main(final String[] args) {
+    public static void main(final String[] args) throws IOException {
+        if (args.length == 2 && args[0].equals("--port")) {
+            final InetSocketAddress address;
+            address = new InetSocketAddress(Integer.parseInt(args[1]));
+            try (FileSystemServer server = new FileSystemServer(
+                    new FileSystem(true), address)) {
+                server.run();
+            }
+            return;
+        }
+        if (args.length == 2 && args[0].equals("--script")) {
+            try (Reader script = new InputStreamReader(
+                    Files.newInputStream(Path.of(args[1])),
+                    StandardCharsets.UTF_8)) {
+                runScript(script);
+            }
+            return;
+        }
+        if (System.console() == null) {
+            runScript(new InputStreamReader(System.in));
+            return;
+        }
+
         final Scanner scanner = new Scanner(new InputStreamReader(System.in));
+        final Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
         final FileSystem fileSystem = new FileSystem();
         boolean doNotQuit = true;
-        System.out.println("Welcome to Endpoint Backend Coding Challenge ");
+        println(out, "Welcome to Endpoint Backend Coding Challenge ");
         do {
             try {
-                System.out.print("> ");
+                out.write("> ");
+                out.flush();
                 String input = scanner.nextLine();
-                String evalRes = eval(input, fileSystem);
-                System.out.println(evalRes);
+                evalTo(input, fileSystem, out);
+                out.flush();
             } catch (Exception e) {
                 final String message = e.getMessage();
                 if (message.equalsIgnoreCase("QUIT")) {
                     doNotQuit = false;
                 }
-                System.out.println("bye.");
+                println(out, "bye.");
             }
         } while (doNotQuit);
     }
 
-    protected static String eval(final String input,
-                                 final FileSystem fileSystem) {
-        final CommandData commandData = getCommandData(input);
-        final String upperCaseCommand = commandData.command.toUpperCase();
-        final String value = commandData.value;
-
-        switch (upperCaseCommand) {
-            case "CREATE":
-                final Either<Exception, Boolean> mkdirRes;
-                mkdirRes = fileSystem.mkdir(value);
-
-                if (mkdirRes.isLeft())
-                    return mkdirRes.left().get().getMessage();
-
-                return String.format("CREATE %s", value);
-            case "DELETE":
-                final Either<Exception, Boolean> rmRes;
-                rmRes = fileSystem.rm(value);
-
-                if (rmRes.isLeft())
-                    return rmRes.left().get().getMessage();
+    /**
+     * Runs a script of commands and reports its throughput.
+     * @param script the script.
+     * @throws IOException if the script cannot be read.
+     */
+    private static void runScript(final Reader script) throws IOException {
+        final Writer out = new BufferedWriter(
+                new OutputStreamWriter(System.out), ScriptRunner.BUFFER_SIZE);
+        final long start = System.nanoTime();
+        final long count;
+        count = new ScriptRunner(new FileSystem(), out).run(script);
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("%d commands in %.3f s (%.0f commands/s)%n",
+                count, seconds, count / Math.max(seconds, 1e-9));
+    }
 
-                return String.format("DELETE %s", value);
-            case "MOVE":
-                final SrcDestData srcDestData = getSrcDestData(value);
-                final Either<Exception, Boolean> mvRes;
-                mvRes = fileSystem.mv(srcDestData.src, srcDestData.dest);
+    private static void println(final Writer out, final String line) {
+        try {
+            out.write(line);
+            out.write(System.lineSeparator());
+            out.flush();
+        } catch (IOException e) {
+            System.out.println(line);
+        }
+    }
 
-                if (mvRes.isLeft())
-                    return mvRes.left().get().getMessage();
+    /**
+     * Evaluates the input and writes the result, followed by a line
+     * separator, to the output. A LIST of the whole tree is streamed
+     * straight to the output instead of being built as a String first.
+     * @param input the command line to evaluate.
+     * @param fileSystem the file system the command is evaluated against.
+     * @param out the output the result is written to.
+     * @throws IOException if writing to the output fails.
+     */
+    protected static void evalTo(final String input,
+                                 final DirectoryTree fileSystem,
+                                 final Appendable out) throws IOException {
+        final CommandParser parser = PARSER.get();
+        parser.parse(input);
+        parser.execute(fileSystem, out);
+        out.append(System.lineSeparator());
+    }
 
-                return String.format("MOVE %s", value);
-            case "LIST":
-                final String ls = fileSystem.ls();
-                final StringBuilder sb = new StringBuilder();
-                final String list;
-                list = sb.append("LIST").append("\n").append(ls).toString();
-                return (ls.isEmpty()) ? "LIST" : list;
-            case "HELP":
-                return getHelpInfo();
-            case "QUIT", "EXIT":
-                throw new RuntimeException("QUIT");
-            default:
-                return String.format("Unknown command: %s", upperCaseCommand);
-        }
+    protected static String eval(final String input,
+                                 final DirectoryTree fileSystem) {
+        return PARSER.get().eval(input, fileSystem);
     }
 
-    private static String getHelpInfo() {
+    static String getHelpInfo() {
         return """
                 Commands:
                 CREATE          creates a directory. (CREATE dir)
                 DELETE          deletes a directory. (DELETE dir)
                 LIST            list all existing directories.
+                                (LIST [dir] [--depth N] [--match glob])
                 MOVE            move a directory (MOVE src dest)
+                COPY            copy a directory (COPY src dest)
                 """;
     }
 
-    protected static CommandData getCommandData(final String input) {
-        final String trimInput = input.strip();
-        final String[] s = trimInput.split(" ", 2);
-        final CommandData commandData = new CommandData();
-
-        if (s.length <= 0) {
-            commandData.command = "";
-            commandData.value = "";
-            return commandData;
-        } else if (s.length == 1) {
-            commandData.command = s[0].strip();
-            commandData.value = "";
-            return commandData;
-        } else if (s.length == 2) {
-            commandData.command = s[0];
-            commandData.value = s[1];
-            return commandData;
-        }
-
-        return commandData;
-    }
-
-    protected static SrcDestData getSrcDestData(final String value) {
-        final String trimInput = value.strip();
-        final String[] s = trimInput.split(" ");
-        final SrcDestData srcDestData = new SrcDestData();
-
-        if (s.length <= 0) {
-            srcDestData.src = "";
-            srcDestData.dest = "";
-        } else if (s.length == 1) {
-            srcDestData.src = s[0];
-            srcDestData.dest = "";
-        } else {
-            srcDestData.src = s[0];
-            srcDestData.dest = s[1];
-        }
-
-        return srcDestData;
-    }
-
     /**
-     * Holder of the command data.
+     * Evaluates a LIST of a subtree: an optional path, then an optional
+     * depth limit and an optional name pattern.
+     * @param value the arguments of the LIST.
+     * @param fileSystem the file system the command is evaluated against.
+     * @return the result.
      */
-    static class CommandData {
-        /**
-         * The command.
-         */
-        String command;
-        /**
-         * The command value.
-         */
-        String value;
-    }
+    static String listSubtree(final String value,
+                              final DirectoryTree fileSystem) {
+        String path = "";
+        int depth = Integer.MAX_VALUE;
+        Glob filter = null;
+        final String[] args = value.strip().split("\\s+");
+        for (int i = 0; i < args.length; i++) {
+            final boolean hasArg = i + 1 < args.length;
+            if (args[i].equals("--depth") && hasArg) {
+                try {
+                    depth = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    return String.format("Invalid depth: %s", args[i]);
+                }
+            } else if (args[i].equals("--match") && hasArg) {
+                filter = Glob.compile(args[++i]);
+            } else if (!args[i].startsWith("--") && i == 0) {
+                path = args[i];
+            } else {
+                return String.format("Invalid LIST argument: %s", args[i]);
+            }
+        }
 
-    /**
-     * Holder of source and destination data.
-     */
-    static class SrcDestData {
-        /**
-         * The source.
-         */
-        String src;
-        /**
-         * The destination.
-         */
-        String dest;
+        final Either<Exception, String> lsRes;
+        lsRes = fileSystem.ls(path, depth, filter);
+        if (lsRes.isLeft())
+            return lsRes.left().get().getMessage();
+
+        final String ls = lsRes.get();
+        final String list = String.format("LIST %s", value.strip());
+        return ls.isEmpty() ? list : list + "\n" + ls;
     }
 }
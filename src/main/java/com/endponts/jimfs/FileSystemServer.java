@@ -0,0 +1,644 @@
+package com.endponts.jimfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the REPL line protocol over TCP to any number of clients. Each
+ * client sends commands, one per line, and receives the same responses as
+ * {@link FileSystemRepl} in the same order. One selector thread only reads
+ * and writes: the complete lines read are evaluated on a pool of workers,
+ * one line of a client at a time, so a long command such as the LIST of a
+ * large tree only holds up the client that sent it. Responses are written
+ * back in chunks as they are produced, with gathering writes.
+ *
+ * <p>The input and output waiting for a client are bounded without
+ * holding up a worker: once too much output waits to be written to a
+ * client, the worker leaves it, and a worker takes it up again once the
+ * client read enough of it. A LIST of the whole tree is rendered a part
+ * at a time for that, so it is resumed where it stopped. A client is not
+ * read from while too many of its lines wait to be evaluated or too much
+ * of its output waits to be written.</p>
+ * @author mw
+ * @version 0.9
+ */
+public final class FileSystemServer implements Runnable, Closeable {
+
+    /**
+     * The default number of workers evaluating commands.
+     */
+    public static final int DEFAULT_WORKERS =
+            Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The size of the read buffer of a connection.
+     */
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * The longest command line accepted, in bytes.
+     */
+    private static final int MAX_LINE_LENGTH = 1 << 16;
+    /**
+     * The number of lines read from a client and not yet evaluated above
+     * which it is not read from.
+     */
+    private static final int MAX_PENDING_LINES = 1024;
+    /**
+     * The number of chars of a response buffered before they are queued
+     * for writing.
+     */
+    private static final int CHUNK_SIZE = 1 << 14;
+    /**
+     * The number of bytes queued for a client from which no more of its
+     * output is produced and it is not read from.
+     */
+    private static final int MAX_QUEUED_OUTPUT = 1 << 20;
+    /**
+     * The number of bytes queued for a client below which its output is
+     * produced again.
+     */
+    private static final int RESUME_OUTPUT = MAX_QUEUED_OUTPUT / 2;
+    /**
+     * How long accepting is paused after it failed, such as when the
+     * process runs out of file descriptors.
+     */
+    private static final long ACCEPT_RETRY_MILLIS = 100;
+
+    /**
+     * The tree shared by all the clients.
+     */
+    private final DirectoryTree fileSystem;
+    /**
+     * The listening channel.
+     */
+    private final ServerSocketChannel server;
+    /**
+     * The selector of the listening channel and the connections.
+     */
+    private final Selector selector;
+    /**
+     * The key of the listening channel.
+     */
+    private final SelectionKey serverKey;
+    /**
+     * The workers evaluating commands.
+     */
+    private final ExecutorService workers;
+    /**
+     * The connections whose state a worker changed, for the selector
+     * thread to update their interests.
+     */
+    private final Queue<Connection> changed = new ConcurrentLinkedQueue<>();
+    /**
+     * When accepting resumes after it failed, 0 while it is not paused.
+     * Only used by the selector thread.
+     */
+    private long acceptPausedUntil;
+
+    /**
+     * Opens a server with {@link #DEFAULT_WORKERS} workers. It serves once
+     * {@link #run()} is called.
+     * @param fileSystem the tree shared by all the clients, which must be
+     *                   safe to share between threads.
+     * @param address the address to listen to, port 0 for any free port.
+     * @throws IOException if the address cannot be bound.
+     */
+    public FileSystemServer(final DirectoryTree fileSystem,
+                            final InetSocketAddress address)
+            throws IOException {
+        this(fileSystem, address, DEFAULT_WORKERS);
+    }
+
+    /**
+     * Opens a server. It serves once {@link #run()} is called.
+     * @param fileSystem the tree shared by all the clients, which must be
+     *                   safe to share between threads.
+     * @param address the address to listen to, port 0 for any free port.
+     * @param workerCount the number of workers evaluating commands.
+     * @throws IOException if the address cannot be bound.
+     */
+    public FileSystemServer(final DirectoryTree fileSystem,
+                            final InetSocketAddress address,
+                            final int workerCount)
+            throws IOException {
+        this.fileSystem = fileSystem;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        try {
+            server.bind(address);
+            server.configureBlocking(false);
+            serverKey = server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+        this.workers = Executors.newFixedThreadPool(workerCount, task -> {
+            final Thread thread = new Thread(task, "jimfs-server-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Retrieves the address the server listens to.
+     * @return the address.
+     * @throws IOException if the server is closed.
+     */
+    public SocketAddress getLocalAddress() throws IOException {
+        return server.getLocalAddress();
+    }
+
+    /**
+     * Serves the clients until the server is closed. A failing client is
+     * disconnected and a failure to accept pauses accepting for a while;
+     * neither stops the server.
+     */
+    @Override
+    public void run() {
+        while (selector.isOpen()) {
+            try {
+                if (acceptPausedUntil != 0) {
+                    selector.select(ACCEPT_RETRY_MILLIS);
+                    resumeAccepting();
+                } else {
+                    selector.select();
+                }
+                for (Connection c = changed.poll(); c != null; c = changed.poll()) {
+                    update(c);
+                }
+                final Iterator<SelectionKey> keys;
+                keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key == serverKey) {
+                        accept();
+                    } else {
+                        serve(key);
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                // closed while selecting
+                return;
+            } catch (IOException e) {
+                // the selector failed to select, try again
+            }
+        }
+    }
+
+    /**
+     * Stops serving and closes the connections.
+     * @throws IOException if the listening channel cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (selector.isOpen()) {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        ((Connection) key.attachment()).close();
+                    }
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // closed concurrently
+        } finally {
+            workers.shutdownNow();
+            server.close();
+            selector.close();
+        }
+    }
+
+    /**
+     * Accepts the pending connections. If accepting fails it is paused
+     * for {@link #ACCEPT_RETRY_MILLIS}.
+     */
+    private void accept() {
+        while (true) {
+            final SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (IOException e) {
+                serverKey.interestOps(0);
+                acceptPausedUntil = System.nanoTime()
+                        + TimeUnit.MILLISECONDS.toNanos(ACCEPT_RETRY_MILLIS);
+                return;
+            }
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.configureBlocking(false);
+                final Connection connection = new Connection(channel);
+                connection.key = channel.register(selector,
+                        SelectionKey.OP_READ, connection);
+            } catch (IOException e) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // the connection is already broken
+                }
+            }
+        }
+    }
+
+    /**
+     * Resumes accepting once its pause is over.
+     */
+    private void resumeAccepting() {
+        if (System.nanoTime() - acceptPausedUntil >= 0) {
+            acceptPausedUntil = 0;
+            serverKey.interestOps(SelectionKey.OP_ACCEPT);
+        }
+    }
+
+    /**
+     * Reads from and writes to a connection, closing it if it fails.
+     * @param key the key of the connection.
+     */
+    private void serve(final SelectionKey key) {
+        final Connection connection = (Connection) key.attachment();
+        try {
+            if (key.isReadable()) {
+                connection.read();
+            }
+            connection.write();
+            update(connection);
+        } catch (IOException | CancelledKeyException
+                | RejectedExecutionException e) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Updates the interests of a connection after it or its responses
+     * changed, closing it once it is done.
+     * @param connection the connection.
+     */
+    private void update(final Connection connection) {
+        synchronized (connection) {
+            if (connection.closed) {
+                return;
+            }
+            // the worker may still be queueing the response to QUIT
+            final boolean flushed = connection.output.isEmpty();
+            final boolean done = !connection.evaluating
+                    && connection.listing == null;
+            if (flushed && done && (connection.quit
+                    || connection.eof && connection.lines.isEmpty())) {
+                connection.close();
+                return;
+            }
+            final boolean readable = !connection.quit && !connection.eof
+                    && connection.lines.size() < MAX_PENDING_LINES
+                    && connection.queued < MAX_QUEUED_OUTPUT;
+            try {
+                connection.key.interestOps(
+                        (flushed ? 0 : SelectionKey.OP_WRITE)
+                                | (readable ? SelectionKey.OP_READ : 0));
+            } catch (CancelledKeyException e) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Asks the selector thread to update the interests of a connection.
+     * @param connection the connection.
+     */
+    private void changed(final Connection connection) {
+        changed.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * The state of one client. The input is only used by the selector
+     * thread and the response being produced only by the worker
+     * evaluating the lines of the client, which hands it over to the next
+     * one through the connection; the rest is guarded by the connection.
+     */
+    private final class Connection implements Appendable {
+        /**
+         * The channel of the client.
+         */
+        private final SocketChannel channel;
+        /**
+         * The key of the channel.
+         */
+        private SelectionKey key;
+        /**
+         * The bytes read and not yet split into lines, in read mode
+         * between reads.
+         */
+        private ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE).flip();
+        /**
+         * The lines read and not yet evaluated.
+         */
+        private final Deque<String> lines = new ArrayDeque<>();
+        /**
+         * Whether a worker is evaluating the lines.
+         */
+        private boolean evaluating;
+        /**
+         * The parser of the lines.
+         */
+        private final CommandParser parser = new CommandParser();
+        /**
+         * The parts of the listing being written, null if there is none.
+         */
+        private Iterator<String> listing;
+        /**
+         * The part of the listing being written and how much of it is.
+         */
+        private String part = "";
+        private int partOffset;
+        /**
+         * The chunk of the response being produced.
+         */
+        private final StringBuilder chunk = new StringBuilder();
+        /**
+         * The responses not yet written.
+         */
+        private final Deque<ByteBuffer> output = new ArrayDeque<>();
+        /**
+         * The number of bytes of the responses not yet written.
+         */
+        private long queued;
+        /**
+         * Whether the client hung up.
+         */
+        private boolean eof;
+        /**
+         * Whether the client quit, after which its lines are ignored.
+         */
+        private boolean quit;
+        /**
+         * Whether the connection is closed.
+         */
+        private volatile boolean closed;
+
+        Connection(final SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Reads what the client sent and hands every complete line to a
+         * worker, and the last one even without a line feed once the
+         * client hung up.
+         * @throws IOException if the channel fails.
+         */
+        void read() throws IOException {
+            input.compact();
+            if (!input.hasRemaining()) {
+                if (input.capacity() >= MAX_LINE_LENGTH) {
+                    throw new IOException("Command line too long");
+                }
+                final ByteBuffer larger;
+                larger = ByteBuffer.allocate(input.capacity() * 2);
+                input = larger.put(input.flip());
+            }
+            final int read = channel.read(input);
+            input.flip();
+
+            synchronized (this) {
+                int start = input.position();
+                for (int i = start; i < input.limit(); i++) {
+                    if (input.get(i) == '\n') {
+                        lines.add(new String(input.array(), start,
+                                i - start, StandardCharsets.UTF_8));
+                        start = i + 1;
+                    }
+                }
+                eof = read < 0;
+                if (eof && start < input.limit()) {
+                    lines.add(new String(input.array(), start,
+                            input.limit() - start, StandardCharsets.UTF_8));
+                    start = input.limit();
+                }
+                input.position(start);
+                schedule();
+            }
+        }
+
+        /**
+         * Hands the connection to a worker if it has output to produce,
+         * no worker has it and little enough of its output is queued.
+         * Called with the connection locked.
+         */
+        private void schedule() {
+            final boolean pending = listing != null
+                    || !quit && !lines.isEmpty();
+            if (!evaluating && !closed && pending && queued < RESUME_OUTPUT) {
+                evaluating = true;
+                workers.execute(this::evaluate);
+            }
+        }
+
+        /**
+         * Writes the listing being written and evaluates the lines read,
+         * in order, until there are none left or too much output is
+         * queued. Runs on a worker.
+         */
+        private void evaluate() {
+            try {
+                while (true) {
+                    final String line;
+                    synchronized (this) {
+                        final boolean pending = listing != null
+                                || !quit && !lines.isEmpty();
+                        if (!pending || closed
+                                || queued >= MAX_QUEUED_OUTPUT) {
+                            evaluating = false;
+                            break;
+                        }
+                        line = listing == null ? lines.poll() : null;
+                    }
+                    if (line == null) {
+                        list();
+                    } else {
+                        eval(line);
+                    }
+                }
+            } catch (IOException e) {
+                // closed while a response was produced
+                synchronized (this) {
+                    evaluating = false;
+                }
+            }
+            changed(this);
+        }
+
+        /**
+         * Evaluates a command line and queues its response.
+         * @param line the command line.
+         * @throws IOException if the connection is closed meanwhile.
+         */
+        private void eval(final String line) throws IOException {
+            try {
+                parser.parse(line);
+                listing = parser.executeLazily(fileSystem, this);
+                if (listing == null) {
+                    append(System.lineSeparator());
+                }
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+            flush();
+        }
+
+        /**
+         * Appends the next slice of the listing being written, or the
+         * end of its response once it is all written.
+         * @throws IOException if the connection is closed meanwhile.
+         */
+        private void list() throws IOException {
+            try {
+                while (partOffset == part.length() && listing.hasNext()) {
+                    part = listing.next();
+                    partOffset = 0;
+                }
+                if (partOffset == part.length()) {
+                    listing = null;
+                    append(System.lineSeparator());
+                    flush();
+                    return;
+                }
+                int end = Math.min(part.length(), partOffset + CHUNK_SIZE);
+                if (end < part.length()
+                        && Character.isHighSurrogate(part.charAt(end - 1))) {
+                    end--;
+                }
+                append(part, partOffset, end);
+                partOffset = end;
+            } catch (RuntimeException e) {
+                listing = null;
+                part = "";
+                partOffset = 0;
+                fail(e);
+                flush();
+            }
+        }
+
+        /**
+         * Ends the response to a command that failed, as the REPL does.
+         * @param e the failure.
+         * @throws IOException if the connection is closed meanwhile.
+         */
+        private void fail(final RuntimeException e) throws IOException {
+            // as in the REPL, only QUIT ends the session; quitting after
+            // the response is queued lets it be written before closing
+            append("bye.").append(System.lineSeparator());
+            if ("QUIT".equalsIgnoreCase(e.getMessage())) {
+                flush();
+                synchronized (this) {
+                    quit = true;
+                }
+            }
+        }
+
+        @Override
+        public Appendable append(final CharSequence csq) throws IOException {
+            chunk.append(csq);
+            return flushIfFull();
+        }
+
+        @Override
+        public Appendable append(final CharSequence csq,
+                                 final int start,
+                                 final int end) throws IOException {
+            chunk.append(csq, start, end);
+            return flushIfFull();
+        }
+
+        @Override
+        public Appendable append(final char c) throws IOException {
+            chunk.append(c);
+            return flushIfFull();
+        }
+
+        private Appendable flushIfFull() throws IOException {
+            if (chunk.length() >= CHUNK_SIZE) {
+                flush();
+            }
+            return this;
+        }
+
+        /**
+         * Queues the chunk of the response being produced for writing.
+         * @throws IOException if the connection is closed.
+         */
+        private void flush() throws IOException {
+            if (chunk.length() == 0) {
+                return;
+            }
+            final ByteBuffer bytes;
+            bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(chunk));
+            chunk.setLength(0);
+            synchronized (this) {
+                if (closed) {
+                    throw new IOException("Connection closed");
+                }
+                output.add(bytes);
+                queued += bytes.remaining();
+            }
+            changed(this);
+        }
+
+        /**
+         * Writes the responses with gathering writes until they are all
+         * written or the channel is full, then hands the connection to a
+         * worker if it left output to produce.
+         * @throws IOException if the channel fails.
+         */
+        synchronized void write() throws IOException {
+            while (!output.isEmpty()) {
+                final ByteBuffer[] buffers = output.toArray(new ByteBuffer[0]);
+                final long written = channel.write(buffers);
+                queued -= written;
+                while (!output.isEmpty() && !output.peek().hasRemaining()) {
+                    output.poll();
+                }
+                if (written == 0) {
+                    break;
+                }
+            }
+            schedule();
+        }
+
+        /**
+         * Closes the connection.
+         */
+        synchronized void close() {
+            closed = true;
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // the connection is already broken
+            }
+        }
+    }
+}
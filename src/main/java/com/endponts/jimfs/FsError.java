@@ -0,0 +1,145 @@
+package com.endponts.jimfs;
+
+import static java.lang.String.format;
+import static java.lang.String.join;
+
+/**
+ * The error of a failed file system operation. It is cheap to create, as
+ * failures are common in validation-heavy workloads: it captures no stack
+ * trace and its message is only rendered, once, when it is first read.
+ * Whatever caused it, such as the path of a failed lookup, is kept as is
+ * until then.
+ * @author mw
+ * @version 0.9
+ */
+public final class FsError extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The kinds of errors.
+     */
+    public enum Code {
+        /**
+         * A path has invalid directory names.
+         */
+        INVALID_NAMES,
+        /**
+         * A directory of a path does not exist.
+         */
+        NOT_FOUND,
+        /**
+         * A directory already exists.
+         */
+        ALREADY_EXISTS,
+        /**
+         * A move failed.
+         */
+        MOVE_FAILED,
+        /**
+         * A copy failed.
+         */
+        COPY_FAILED,
+        /**
+         * A deletion failed.
+         */
+        DELETE_FAILED,
+        /**
+         * A deletion had no directory name.
+         */
+        NAME_REQUIRED
+    }
+
+    /**
+     * The error of a deletion without a directory name, shared as it has
+     * no details.
+     */
+    static final FsError NAME_REQUIRED = new FsError(Code.NAME_REQUIRED,
+            null, null, null);
+
+    /**
+     * The kind of error.
+     */
+    private final Code code;
+    /**
+     * The details of the error, rendered with {@link String#valueOf}: the
+     * path, the names, the directory or the reason, depending on the code.
+     */
+    private final Object first;
+    private final Object second;
+    private final Object reason;
+    /**
+     * The message, once rendered.
+     */
+    private String message;
+
+    FsError(final Code code,
+            final Object first,
+            final Object second,
+            final Object reason) {
+        this.code = code;
+        this.first = first;
+        this.second = second;
+        this.reason = reason;
+    }
+
+    /**
+     * Retrieves the kind of error.
+     * @return the code.
+     */
+    public Code getCode() {
+        return code;
+    }
+
+    /**
+     * Renders the message on first use.
+     * @return the message.
+     */
+    @Override
+    public String getMessage() {
+        String rendered = message;
+        if (rendered == null) {
+            rendered = render();
+            message = rendered;
+        }
+        return rendered;
+    }
+
+    /**
+     * Captures no stack trace.
+     * @return this error.
+     */
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+
+    private String render() {
+        switch (code) {
+            case INVALID_NAMES:
+                final String path = (String) first;
+                final String names = path.isEmpty()
+                        ? "" : join(" ", (String[]) second);
+                return format("Invalid directory name(s): [%s]", names);
+            case NOT_FOUND:
+                return format("%s does not exist", first);
+            case ALREADY_EXISTS:
+                return format("%s already exists", first);
+            case MOVE_FAILED:
+                return format("Cannot move [%s] to [%s] - %s",
+                        first, second, reasonMessage());
+            case COPY_FAILED:
+                return format("Cannot copy [%s] to [%s] - %s",
+                        first, second, reasonMessage());
+            case DELETE_FAILED:
+                return format("Cannot delete %s - %s", first, reasonMessage());
+            default:
+                return "Directory name required.";
+        }
+    }
+
+    private String reasonMessage() {
+        return reason instanceof Throwable
+                ? ((Throwable) reason).getMessage() : String.valueOf(reason);
+    }
+}
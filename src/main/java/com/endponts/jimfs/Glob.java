@@ -0,0 +1,98 @@
+package com.endponts.jimfs;
+
+/**
+ * A directory name pattern where {@code *} matches any characters and
+ * {@code ?} matches one character. Matching is case-sensitive, like the
+ * order of {@link FileSystem#ls()}, so that the names matching a pattern
+ * with a literal prefix are a contiguous range of the sorted children.
+ * @author mw
+ * @version 0.9
+ */
+public final class Glob {
+
+    /**
+     * The pattern.
+     */
+    private final String pattern;
+    /**
+     * The characters before the first wildcard.
+     */
+    private final String literalPrefix;
+
+    private Glob(final String pattern) {
+        this.pattern = pattern;
+        int wildcard = 0;
+        while (wildcard < pattern.length() && !isWildcard(pattern.charAt(wildcard))) {
+            wildcard++;
+        }
+        this.literalPrefix = pattern.substring(0, wildcard);
+    }
+
+    /**
+     * Compiles a pattern.
+     * @param pattern the pattern.
+     * @return the glob.
+     */
+    public static Glob compile(final String pattern) {
+        return new Glob(pattern);
+    }
+
+    /**
+     * Retrieves the characters every matching name starts with.
+     * @return the literal prefix of the pattern, empty if it starts with a
+     * wildcard.
+     */
+    public String getLiteralPrefix() {
+        return literalPrefix;
+    }
+
+    /**
+     * Indicates whether the pattern matches only the literal prefix.
+     * @return true if the pattern has no wildcard and false otherwise.
+     */
+    public boolean isLiteral() {
+        return literalPrefix.length() == pattern.length();
+    }
+
+    /**
+     * Matches a name against the pattern, backtracking to the last star
+     * only, which takes linear space and at most quadratic time.
+     * @param name the name.
+     * @return true if the whole name matches and false otherwise.
+     */
+    public boolean matches(final CharSequence name) {
+        int p = 0;
+        int n = 0;
+        int star = -1;
+        int starName = 0;
+        while (n < name.length()) {
+            if (p < pattern.length() && pattern.charAt(p) == '*') {
+                star = p++;
+                starName = n;
+            } else if (p < pattern.length()
+                    && (pattern.charAt(p) == '?'
+                    || pattern.charAt(p) == name.charAt(n))) {
+                p++;
+                n++;
+            } else if (star >= 0) {
+                p = star + 1;
+                n = ++starName;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*') {
+            p++;
+        }
+        return p == pattern.length();
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+
+    private static boolean isWildcard(final char c) {
+        return c == '*' || c == '?';
+    }
+}
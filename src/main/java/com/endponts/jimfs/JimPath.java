@@ -0,0 +1,249 @@
+package com.endponts.jimfs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A path split into its directory names. Paths are parsed once and cached,
+ * and their names and case-folded lookup keys are interned, so callers that
+ * repeat paths can skip the parsing and validation entirely.
+ * @author mw
+ * @version 0.9
+ */
+public final class JimPath {
+
+    /**
+     * The number of paths and names cached before the caches are cleared.
+     */
+    private static final int CACHE_LIMIT = 1 << 16;
+    /**
+     * The parsed paths.
+     */
+    private static final ConcurrentHashMap<String, JimPath> PATHS =
+            new ConcurrentHashMap<>();
+    /**
+     * The interned directory names and lookup keys.
+     */
+    private static final ConcurrentHashMap<String, String> NAMES =
+            new ConcurrentHashMap<>();
+
+    /**
+     * The path as given.
+     */
+    private final String path;
+    /**
+     * The directory names of the path.
+     */
+    private final String[] dirNames;
+    /**
+     * The case-folded lookup key of each directory name.
+     */
+    private final String[] keys;
+    /**
+     * The outcome of the last validation of the directory names.
+     */
+    private volatile Validation validation;
+    /**
+     * The lookup keys joined by '/', computed when first needed.
+     */
+    private volatile String keyPath;
+
+    private JimPath(final String p, final String[] n, final String[] k) {
+        this.path = p;
+        this.dirNames = n;
+        this.keys = k;
+    }
+
+    /**
+     * Retrieves the parsed form of a path, parsing it only if it was not
+     * seen before.
+     * @param path the path, directory names separated by '/'.
+     * @return the parsed path.
+     */
+    public static JimPath of(final String path) {
+        final JimPath cached = PATHS.get(path);
+        if (cached != null) {
+            return cached;
+        }
+
+        final JimPath parsed = parse(path);
+        if (PATHS.size() >= CACHE_LIMIT) {
+            PATHS.clear();
+        }
+        PATHS.put(path, parsed);
+        return parsed;
+    }
+
+    /**
+     * Parses a path without caching it. The directory names are the same as
+     * those of {@code path.split("/")}.
+     * @param path the path, directory names separated by '/'.
+     * @return the parsed path.
+     */
+    public static JimPath parse(final String path) {
+        final List<String> names = new ArrayList<>();
+        int start = 0;
+        int end = path.indexOf('/');
+        while (end >= 0) {
+            names.add(path.substring(start, end));
+            start = end + 1;
+            end = path.indexOf('/', start);
+        }
+        names.add(path.substring(start));
+
+        // like String.split, drop trailing empty names unless there is
+        // no separator at all
+        int count = names.size();
+        while (count > 1 && names.get(count - 1).isEmpty()) {
+            count--;
+        }
+        if (count == 1 && names.size() > 1 && names.get(0).isEmpty()) {
+            count = 0;
+        }
+
+        final String[] dirNames = new String[count];
+        final String[] keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            dirNames[i] = intern(names.get(i));
+            keys[i] = intern(Directory.foldName(dirNames[i]));
+        }
+        return new JimPath(path, dirNames, keys);
+    }
+
+    private static String intern(final String name) {
+        final String interned = NAMES.get(name);
+        if (interned != null) {
+            return interned;
+        }
+
+        if (NAMES.size() >= CACHE_LIMIT) {
+            NAMES.clear();
+        }
+        final String previous = NAMES.putIfAbsent(name, name);
+        return previous == null ? name : previous;
+    }
+
+    /**
+     * Retrieves the number of directory names.
+     * @return the number of directory names.
+     */
+    public int length() {
+        return dirNames.length;
+    }
+
+    /**
+     * Retrieves a directory name.
+     * @param index the index of the name.
+     * @return the directory name.
+     */
+    public String getName(final int index) {
+        return dirNames[index];
+    }
+
+    /**
+     * Retrieves the case-folded lookup key of a directory name.
+     * @param index the index of the name.
+     * @return the lookup key.
+     */
+    String getKey(final int index) {
+        return keys[index];
+    }
+
+    /**
+     * Retrieves the lookup keys joined by '/', the same for every path that
+     * names the same directories ignoring case.
+     * @return the lookup key of the whole path.
+     */
+    String getKeyPath() {
+        String joined = keyPath;
+        if (joined == null) {
+            joined = String.join("/", keys);
+            keyPath = joined;
+        }
+        return joined;
+    }
+
+    /**
+     * Retrieves the directory names. The array must not be modified.
+     * @return the directory names.
+     */
+    String[] getDirNames() {
+        return dirNames;
+    }
+
+    /**
+     * Retrieves the invalid directory names, validating them only if they
+     * were not validated by the same rules before.
+     * @param tree the tree whose rules the names are validated by.
+     * @return the invalid directory names.
+     */
+    String[] getInvalidDirectoryNames(final AbstractDirectoryTree tree) {
+        final Object rules = tree.getNameValidator();
+        final Validation last = validation;
+        if (last != null && last.rules == rules) {
+            return last.invalidDirNames;
+        }
+
+        final String[] invalid = tree.getInvalidDirectoryNames(dirNames);
+        validation = new Validation(rules, invalid);
+        return invalid;
+    }
+
+    /**
+     * Indicates whether the path is empty.
+     * @return true if the path is empty and false otherwise.
+     */
+    public boolean isEmpty() {
+        return path.isEmpty();
+    }
+
+    /**
+     * Retrieves the path as given.
+     * @return the path.
+     */
+    @Override
+    public String toString() {
+        return path;
+    }
+
+    /**
+     * Indicates whether the path is equal to another object.
+     * @param o the other object.
+     * @return true if the other object is the same path as given.
+     */
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (!(o instanceof JimPath)) return false;
+        return path.equals(((JimPath) o).path);
+    }
+
+    /**
+     * A hashcode of the path as given.
+     * @return int hashcode value.
+     */
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+
+    /**
+     * The invalid directory names found under a set of rules.
+     */
+    private static final class Validation {
+        /**
+         * The rules the names were validated by.
+         */
+        private final Object rules;
+        /**
+         * The invalid directory names.
+         */
+        private final String[] invalidDirNames;
+
+        Validation(final Object r, final String[] i) {
+            this.rules = r;
+            this.invalidDirNames = i;
+        }
+    }
+}
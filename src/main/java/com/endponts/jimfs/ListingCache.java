@@ -0,0 +1,52 @@
+package com.endponts.jimfs;
+
+/**
+ * The LIST output of the descendants of a directory, rendered at one level
+ * and valid while the version of the directory is unchanged. The output is
+ * kept as a rope: a part is either rendered text or a large child directory
+ * whose own cache holds the output of its descendants, so every line is
+ * stored once however deep the caches nest.
+ * @author mw
+ * @version 0.9
+ */
+final class ListingCache {
+
+    /**
+     * The version of the directory the output was rendered from.
+     */
+    private final long version;
+    /**
+     * The level at which the children of the directory were rendered.
+     */
+    private final int level;
+    /**
+     * The rendered text and large child directories, in output order.
+     */
+    private final Object[] parts;
+
+    ListingCache(final long version, final int level, final Object[] parts) {
+        this.version = version;
+        this.level = level;
+        this.parts = parts;
+    }
+
+    /**
+     * Indicates whether the output is that of a directory version at a
+     * level.
+     * @param currentVersion the current version of the directory.
+     * @param currentLevel the level the output is needed at.
+     * @return true if the cache can be used and false otherwise.
+     */
+    boolean isValid(final long currentVersion, final int currentLevel) {
+        return version == currentVersion && level == currentLevel;
+    }
+
+    /**
+     * Retrieves the parts of the output: {@link String} text and the
+     * {@link Directory} children whose cached output follows their line.
+     * @return the parts. The array must not be modified.
+     */
+    Object[] getParts() {
+        return parts;
+    }
+}
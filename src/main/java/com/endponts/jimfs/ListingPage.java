@@ -0,0 +1,63 @@
+package com.endponts.jimfs;
+
+/**
+ * A page of the LIST output of a directory, see
+ * {@link FileSystem#lsPage(String, int, int, String)}.
+ * @author mw
+ * @version 0.9
+ */
+public final class ListingPage {
+
+    /**
+     * The lines of the page.
+     */
+    private final String listing;
+    /**
+     * The number of lines of the page.
+     */
+    private final int size;
+    /**
+     * The cursor of the next page, null if this is the last page.
+     */
+    private final String cursor;
+
+    ListingPage(final String listing, final int size, final String cursor) {
+        this.listing = listing;
+        this.size = size;
+        this.cursor = cursor;
+    }
+
+    /**
+     * Retrieves the lines of the page, formatted as by
+     * {@link FileSystem#ls()} with the children of the listed directory
+     * at level 0.
+     * @return the lines, each ending with a line feed.
+     */
+    public String getListing() {
+        return listing;
+    }
+
+    /**
+     * Retrieves the number of lines of the page.
+     * @return the number of lines.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Retrieves the cursor that resumes the listing after this page.
+     * @return the cursor or null if this is the last page.
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Indicates whether the listing continues after this page.
+     * @return true if there is a next page and false otherwise.
+     */
+    public boolean hasMore() {
+        return cursor != null;
+    }
+}
@@ -0,0 +1,281 @@
+package com.endponts.jimfs;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An inverted index of the directories of a tree by case-folded name, so
+ * that the directories with a name below any directory are found in time
+ * proportional to their number rather than to the size of the tree.
+ *
+ * <p>The directories are laid out in an Euler tour of the tree: every
+ * directory has an opening mark before those of its descendants and a
+ * closing mark after them, with the children in name order. The marks
+ * carry labels kept in tour order as marks are inserted, relabelling the
+ * smallest enclosing range of labels that is sparse enough, so that an
+ * insertion takes amortized logarithmic time. The directories with a name
+ * are kept sorted by the labels of their opening marks, so those below a
+ * directory are the range between its two marks, already depth first.</p>
+ *
+ * <p>A directory is indexed with its descendants when it is linked into
+ * an indexed directory and removed with them when it is unlinked, so a
+ * move or a deletion takes time proportional to the subtree. All changes
+ * and lookups take one lock, so a directory added below a subtree while
+ * the subtree is removed is either removed with it or never indexed.</p>
+ * @author mw
+ * @version 0.9
+ */
+final class NameIndex {
+
+    /**
+     * The labels are below 2^LABEL_BITS, which labels the end of the tour.
+     */
+    private static final int LABEL_BITS = 62;
+
+    /**
+     * The opening marks of the directories by case-folded name, in tour
+     * order.
+     */
+    private final Map<String, NavigableSet<Mark>> byKey = new HashMap<>();
+    /**
+     * Guards the tour, the marks and {@link #byKey}.
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Starts the tour with the root of the tree, which is never found
+     * itself.
+     * @param root the root.
+     */
+    void addRoot(final Directory root) {
+        lock.writeLock().lock();
+        try {
+            final Mark open = new Mark(root);
+            open.end = new Mark(null);
+            open.next = open.end;
+            open.end.prev = open;
+            open.end.label = 1L << LABEL_BITS;
+            root.setIndexMark(open);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Indexes a directory just linked into its parent, and its
+     * descendants. Nothing is indexed if the parent is not, such as when
+     * it was removed meanwhile, or if the directory already is.
+     * @param directory the directory.
+     */
+    void addTree(final Directory directory) {
+        lock.writeLock().lock();
+        try {
+            final Directory parent = directory.getParent();
+            if (parent == null || parent.getIndexMark() == null
+                    || directory.getIndexMark() != null) {
+                return;
+            }
+
+            // the tour goes on after the closest indexed earlier sibling
+            Mark cursor = parent.getIndexMark();
+            final Iterator<FileSystemItem> earlier;
+            earlier = parent.getDescendants().headSet(directory, false)
+                    .descendingIterator();
+            while (earlier.hasNext()) {
+                final Mark sibling = ((Directory) earlier.next()).getIndexMark();
+                if (sibling != null) {
+                    cursor = sibling.end;
+                    break;
+                }
+            }
+
+            // a directory is followed by its children in reverse order,
+            // so they come off the stack in name order, then by its end
+            final Deque<Object> pending = new ArrayDeque<>();
+            pending.push(directory);
+            while (!pending.isEmpty()) {
+                final Object next = pending.pop();
+                if (next instanceof Mark) {
+                    insertAfter(cursor, (Mark) next);
+                    cursor = (Mark) next;
+                    continue;
+                }
+
+                final Directory dir = (Directory) next;
+                final Mark open = new Mark(dir);
+                open.end = new Mark(null);
+                insertAfter(cursor, open);
+                cursor = open;
+                dir.setIndexMark(open);
+                byKey.computeIfAbsent(Directory.foldName(dir.getName()),
+                        k -> new TreeSet<>()).add(open);
+                pending.push(open.end);
+                for (FileSystemItem child : dir.getDescendants().descendingSet()) {
+                    pending.push(child);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a directory and its descendants from the index, those added
+     * by other writers since it was unlinked included.
+     * @param directory the directory.
+     */
+    void removeTree(final Directory directory) {
+        lock.writeLock().lock();
+        try {
+            final Mark open = directory.getIndexMark();
+            if (open == null) {
+                return;
+            }
+
+            for (Mark m = open; m != open.end; m = m.next) {
+                if (m.directory != null) {
+                    final String key = Directory.foldName(m.directory.getName());
+                    final NavigableSet<Mark> marks = byKey.get(key);
+                    marks.remove(m);
+                    if (marks.isEmpty()) {
+                        byKey.remove(key);
+                    }
+                    m.directory.setIndexMark(null);
+                }
+            }
+            open.prev.next = open.end.next;
+            open.end.next.prev = open.prev;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the directories with a name below a directory, ignoring case.
+     * @param directory the directory searched, which is not found itself.
+     * @param name the name.
+     * @return the directories, depth first with the children of each
+     * directory in name order.
+     */
+    List<Directory> find(final Directory directory, final String name) {
+        lock.readLock().lock();
+        try {
+            final Mark open = directory.getIndexMark();
+            final NavigableSet<Mark> marks = byKey.get(Directory.foldName(name));
+            if (open == null || marks == null) {
+                return Collections.emptyList();
+            }
+
+            final List<Directory> found = new ArrayList<>();
+            for (Mark m : marks.subSet(open, false, open.end, false)) {
+                found.add(m.directory);
+            }
+            return found;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Links a mark into the tour after another, relabelling marks around
+     * the other one first if there is no label left between it and the
+     * next mark.
+     * @param before the mark the new one follows.
+     * @param mark the new mark.
+     */
+    private static void insertAfter(final Mark before, final Mark mark) {
+        if (before.next.label - before.label < 2) {
+            relabel(before);
+        }
+        mark.label = before.label + (before.next.label - before.label) / 2;
+        mark.prev = before;
+        mark.next = before.next;
+        before.next.prev = mark;
+        before.next = mark;
+    }
+
+    /**
+     * Spreads the labels of the smallest aligned range of labels around a
+     * mark that holds few enough marks evenly over the range. A range of
+     * 2^i labels qualifies if it holds fewer than (4/3)^i marks, which
+     * keeps the amortized number of marks relabelled per insertion
+     * logarithmic.
+     * @param mark the mark that has no label left after it.
+     */
+    private static void relabel(final Mark mark) {
+        Mark first = mark;
+        Mark last = mark;
+        long count = 1;
+        double limit = 1;
+        for (int i = 1; i <= LABEL_BITS; i++) {
+            final long size = 1L << i;
+            final long base = mark.label & -size;
+            while (first.prev != null && first.prev.label >= base) {
+                first = first.prev;
+                count++;
+            }
+            // the last mark, which ends the root, is never moved
+            while (last.next.next != null && last.next.label < base + size) {
+                last = last.next;
+                count++;
+            }
+            limit *= 4.0 / 3;
+            final long step = size / (count + 1);
+            if (i == LABEL_BITS && step < 2) {
+                throw new IllegalStateException("Too many directories to index");
+            }
+            if (i == LABEL_BITS || (count < limit && step >= 2)) {
+                long label = base;
+                for (Mark m = first; ; m = m.next) {
+                    m.label = label;
+                    label += step;
+                    if (m == last) {
+                        break;
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * A position in the tour, opening a directory or closing one.
+     */
+    static final class Mark implements Comparable<Mark> {
+        /**
+         * The directory opened, null for a closing mark.
+         */
+        private final Directory directory;
+        /**
+         * The label giving the position in the tour.
+         */
+        private long label;
+        /**
+         * The marks before and after in the tour.
+         */
+        private Mark prev;
+        private Mark next;
+        /**
+         * The closing mark of the directory of an opening mark.
+         */
+        private Mark end;
+
+        Mark(final Directory directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        public int compareTo(final Mark other) {
+            return Long.compare(label, other.label);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.endponts.jimfs;
+
+import java.util.Arrays;
+
+/**
+ * Validates directory names against a set of invalid characters. The set
+ * is precomputed into a bit set for ASCII characters and a sorted array for
+ * any others, so a name is validated in a single pass without allocating.
+ * @author mw
+ * @version 0.9
+ */
+public final class NameValidator {
+
+    /**
+     * The validator rejecting spaces and colons.
+     */
+    public static final NameValidator DEFAULT = new NameValidator(" :");
+
+    /**
+     * The result of validating names that are all valid.
+     */
+    private static final String[] NO_NAMES = new String[0];
+
+    /**
+     * The invalid ASCII characters, one bit per character.
+     */
+    private final long[] asciiBits = new long[2];
+    /**
+     * The invalid non-ASCII characters, sorted.
+     */
+    private final char[] others;
+    /**
+     * The invalid characters, one per string.
+     */
+    private final String[] invalidChars;
+
+    /**
+     * Constructs a validator.
+     * @param chars the characters a name must not contain.
+     */
+    public NameValidator(final String chars) {
+        final char[] distinct = chars.chars()
+                .distinct()
+                .sorted()
+                .collect(StringBuilder::new,
+                        StringBuilder::appendCodePoint,
+                        StringBuilder::append)
+                .toString()
+                .toCharArray();
+        int otherCount = 0;
+        for (char c : distinct) {
+            if (c < 128) {
+                asciiBits[c >>> 6] |= 1L << c;
+            } else {
+                otherCount++;
+            }
+        }
+        others = Arrays.copyOfRange(distinct, distinct.length - otherCount,
+                distinct.length);
+
+        invalidChars = new String[distinct.length];
+        for (int i = 0; i < distinct.length; i++) {
+            invalidChars[i] = String.valueOf(distinct[i]);
+        }
+    }
+
+    /**
+     * Indicates whether a name contains none of the invalid characters.
+     * @param name the name to validate.
+     * @return true if the name is valid and false otherwise.
+     */
+    public boolean isValid(final String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (isInvalid(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Indicates whether a character is one of the invalid characters.
+     * @param c the character.
+     * @return true if the character is invalid and false otherwise.
+     */
+    public boolean isInvalid(final char c) {
+        if (c < 128) {
+            return (asciiBits[c >>> 6] & (1L << c)) != 0;
+        }
+        return others.length > 0 && Arrays.binarySearch(others, c) >= 0;
+    }
+
+    /**
+     * Finds the invalid names. Nothing is allocated when all are valid.
+     * @param names the names to validate.
+     * @return the invalid names in their original order.
+     */
+    public String[] getInvalidNames(final String[] names) {
+        int count = 0;
+        for (String name : names) {
+            if (!isValid(name)) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return NO_NAMES;
+        }
+
+        final String[] invalid = new String[count];
+        int i = 0;
+        for (String name : names) {
+            if (!isValid(name)) {
+                invalid[i++] = name;
+            }
+        }
+        return invalid;
+    }
+
+    /**
+     * Retrieves the invalid characters.
+     * @return the invalid characters, one per string.
+     */
+    public String[] getInvalidChars() {
+        return invalidChars.clone();
+    }
+}
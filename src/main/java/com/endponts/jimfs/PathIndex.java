@@ -0,0 +1,123 @@
+package com.endponts.jimfs;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maps whole paths to the directories they resolved to, so a deep path is
+ * resolved with one map probe instead of one child lookup per directory
+ * name. The probe is not enough on its own, see below.
+ *
+ * <p>Entries are validated when they are found: every entry records the
+ * sequence number read before its path was resolved, and a directory
+ * records the sequence number of its last move or deletion. An entry is
+ * only trusted if no directory between it and the root was moved or
+ * deleted since, so a move or deletion only invalidates the paths through
+ * the directory moved or deleted. The price is a walk up the parent chain
+ * on every hit, which compares one field per directory. A hit therefore
+ * takes time proportional to the depth of the path, though each step is
+ * far cheaper than a child lookup. Making hits constant time would need a
+ * move to restamp the whole moved subtree. Instead, a move costs the same
+ * whatever the size of the moved subtree.</p>
+ * @author mw
+ * @version 0.9
+ */
+final class PathIndex {
+
+    /**
+     * The number of entries kept before the index is cleared.
+     */
+    private static final int CAPACITY = 1 << 20;
+
+    /**
+     * The entries by the lookup key of their path.
+     */
+    private final ConcurrentHashMap<String, Entry> entries =
+            new ConcurrentHashMap<>();
+    /**
+     * The last sequence number given to a move or deletion.
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Retrieves the current sequence number, to be read before a path is
+     * resolved and passed to {@link #put(JimPath, Directory, long)}.
+     * @return the current sequence number.
+     */
+    long epoch() {
+        return sequence.get();
+    }
+
+    /**
+     * Finds the directory a path resolved to, if no directory between it
+     * and the root was moved or deleted since. A stale entry is dropped.
+     * @param path the path.
+     * @return the directory or null if the path is not indexed or stale.
+     */
+    Directory get(final JimPath path) {
+        final Entry entry = entries.get(path.getKeyPath());
+        if (entry == null) {
+            return null;
+        }
+        for (Directory d = entry.directory; d != null; d = d.getParent()) {
+            if (d.getUnlinkedIn() > entry.epoch) {
+                entries.remove(path.getKeyPath(), entry);
+                return null;
+            }
+        }
+        return entry.directory;
+    }
+
+    /**
+     * Records the directory a path resolved to.
+     * @param path the path.
+     * @param directory the directory.
+     * @param resolvedIn the sequence number read before the path was
+     *                   resolved.
+     */
+    void put(final JimPath path,
+             final Directory directory,
+             final long resolvedIn) {
+        if (entries.size() >= CAPACITY) {
+            entries.clear();
+        }
+        entries.put(path.getKeyPath(), new Entry(directory, resolvedIn));
+    }
+
+    /**
+     * Invalidates the paths through a directory that is moved or deleted.
+     * Called both before and after the directory is unlinked so that
+     * paths resolved while it was moving are not trusted afterwards.
+     * @param directory the directory moved or deleted.
+     */
+    void invalidate(final Directory directory) {
+        directory.setUnlinkedIn(sequence.incrementAndGet());
+    }
+
+    /**
+     * Drops the entry of a path, such as that of a deleted directory.
+     * @param path the path.
+     */
+    void remove(final JimPath path) {
+        entries.remove(path.getKeyPath());
+    }
+
+    /**
+     * A resolved path.
+     */
+    private static final class Entry {
+        /**
+         * The directory the path resolved to.
+         */
+        private final Directory directory;
+        /**
+         * The sequence number read before the path was resolved.
+         */
+        private final long epoch;
+
+        Entry(final Directory directory, final long epoch) {
+            this.directory = directory;
+            this.epoch = epoch;
+        }
+    }
+}
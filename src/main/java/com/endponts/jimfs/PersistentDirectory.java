@@ -0,0 +1,157 @@
+package com.endponts.jimfs;
+
+import io.vavr.Tuple2;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.TreeMap;
+import io.vavr.control.Option;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * An immutable directory of a {@link PersistentFileSystem}. Updating a
+ * directory returns a new one that shares every unchanged child with the
+ * old one, so any directory is a consistent point-in-time snapshot of its
+ * subtree that can be read without locks.
+ * @author mw
+ * @version 0.9
+ */
+public final class PersistentDirectory {
+
+    /**
+     * The empty root directory.
+     */
+    static final PersistentDirectory EMPTY_ROOT = new PersistentDirectory("");
+
+    /**
+     * The directory name.
+     */
+    private final String name;
+    /**
+     * Holds the directory children sorted by names.
+     */
+    private final TreeMap<String, PersistentDirectory> children;
+    /**
+     * Holds the names of the children keyed by their case-folded names.
+     */
+    private final HashMap<String, String> namesByKey;
+
+    /**
+     * Constructs an empty directory.
+     * @param n the name of the directory.
+     */
+    PersistentDirectory(final String n) {
+        this(n, TreeMap.empty(), HashMap.empty());
+    }
+
+    private PersistentDirectory(final String n,
+                                final TreeMap<String, PersistentDirectory> c,
+                                final HashMap<String, String> k) {
+        this.name = n;
+        this.children = c;
+        this.namesByKey = k;
+    }
+
+    /**
+     * Retrieves the directory name.
+     * @return the directory name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Finds an immediate child by name, ignoring case.
+     * @param childName the name of the child to find.
+     * @return the child or null if it does not exist.
+     */
+    public PersistentDirectory findChild(final String childName) {
+        final Option<String> key = namesByKey.get(Directory.foldName(childName));
+        return key.isEmpty() ? null : children.get(key.get()).get();
+    }
+
+    /**
+     * Indicates whether the directory has any children.
+     * @return true if the directory is empty and false otherwise.
+     */
+    public boolean isEmpty() {
+        return children.isEmpty();
+    }
+
+    /**
+     * Adds a child, or replaces the child of the same name.
+     * @param child the child to add.
+     * @return the updated directory.
+     */
+    PersistentDirectory withChild(final PersistentDirectory child) {
+        final String key = Directory.foldName(child.name);
+        return new PersistentDirectory(name,
+                children.put(child.name, child),
+                namesByKey.put(key, child.name));
+    }
+
+    /**
+     * Removes a child.
+     * @param child the child to remove.
+     * @return the updated directory.
+     */
+    PersistentDirectory withoutChild(final PersistentDirectory child) {
+        final String key = Directory.foldName(child.name);
+        return new PersistentDirectory(name,
+                children.remove(child.name),
+                namesByKey.remove(key));
+    }
+
+    /**
+     * List all descendants of the directory, formatted the same way as
+     * {@link FileSystem#ls()}.
+     * @return a formatted string of the descendants.
+     */
+    public String ls() {
+        final StringBuilder sb = new StringBuilder();
+        try {
+            ls(sb);
+        } catch (IOException e) {
+            // appending to a StringBuilder never fails
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Streams all descendants of the directory to the given output. The
+     * tree is walked with an explicit stack, so its depth is not limited
+     * by the thread stack.
+     * @param out the output the listing is written to.
+     * @throws IOException if writing to the output fails.
+     */
+    public void ls(final Appendable out) throws IOException {
+        // the indentation of the deepest level so far, of which each level
+        // appends its own prefix
+        final StringBuilder indent = new StringBuilder();
+        final Deque<Iterator<Tuple2<String, PersistentDirectory>>> stack;
+        stack = new ArrayDeque<>();
+        stack.push(children.iterator());
+        while (!stack.isEmpty()) {
+            final Iterator<Tuple2<String, PersistentDirectory>> siblings;
+            siblings = stack.peek();
+            if (!siblings.hasNext()) {
+                stack.pop();
+                continue;
+            }
+
+            final int indentLength = 2 * (stack.size() - 1);
+            while (indent.length() < indentLength) {
+                indent.append("  ");
+            }
+            final Tuple2<String, PersistentDirectory> child = siblings.next();
+            out.append(indent, 0, indentLength).append(child._1).append('\n');
+            if (!child._2.children.isEmpty()) {
+                stack.push(child._2.children.iterator());
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.endponts.jimfs;
+
+import io.vavr.control.Either;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A file system whose tree is made of immutable {@link PersistentDirectory}
+ * nodes. Writers copy the path from the root to the directory they change
+ * and publish the new root atomically, retrying if another writer published
+ * first. Readers never lock: {@link #snapshot()} returns a consistent
+ * point-in-time tree that later writes do not affect.
+ * @author mw
+ * @version 0.9
+ */
+public class PersistentFileSystem extends AbstractDirectoryTree {
+
+    /**
+     * The current root directory.
+     */
+    private final AtomicReference<PersistentDirectory> root;
+
+    /**
+     * Construct a new PersistentFileSystem with an empty root directory.
+     */
+    public PersistentFileSystem() {
+        this(NameValidator.DEFAULT);
+    }
+
+    /**
+     * Construct a new PersistentFileSystem with an empty root directory.
+     * @param nameValidator the validator of the directory names.
+     */
+    public PersistentFileSystem(final NameValidator nameValidator) {
+        super(nameValidator);
+        root = new AtomicReference<>(PersistentDirectory.EMPTY_ROOT);
+    }
+
+    /**
+     * Retrieves the current tree. The returned root is never modified.
+     * @return the root directory of the current tree.
+     */
+    public PersistentDirectory snapshot() {
+        return root.get();
+    }
+
+    @Override
+    public String ls() {
+        return root.get().ls();
+    }
+
+    @Override
+    public void ls(final Appendable out) throws IOException {
+        root.get().ls(out);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return root.get().isEmpty();
+    }
+
+    @Override
+    public final Either<Exception, Boolean> mkdir(final String path) {
+        final JimPath jimPath = JimPath.of(path);
+        final String[] dirNames = jimPath.getDirNames();
+        final String[] invDirNames = jimPath.getInvalidDirectoryNames(this);
+        if (invDirNames.length > 0 || path.isEmpty()) {
+            return Either.left(invalidNamesError(path, invDirNames));
+        }
+
+        while (true) {
+            final PersistentDirectory current = root.get();
+            final PersistentDirectory[] chain;
+            chain = new PersistentDirectory[dirNames.length + 1];
+            chain[0] = current;
+            int found = 0;
+            while (found < dirNames.length) {
+                final PersistentDirectory child;
+                child = chain[found].findChild(dirNames[found]);
+                if (child == null) {
+                    break;
+                }
+                chain[++found] = child;
+            }
+
+            if (found == dirNames.length) {
+                return Either.right(true);
+            }
+
+            // build the missing directories bottom up
+            PersistentDirectory missing;
+            missing = new PersistentDirectory(dirNames[dirNames.length - 1]);
+            for (int i = dirNames.length - 2; i >= found; i--) {
+                missing = new PersistentDirectory(dirNames[i]).withChild(missing);
+            }
+
+            final PersistentDirectory parent = chain[found].withChild(missing);
+            if (root.compareAndSet(current, replace(chain, found, parent))) {
+                return Either.right(true);
+            }
+        }
+    }
+
+    @Override
+    public final Either<Exception, Boolean> mv(final String srcPath,
+                                               final String destPath) {
+        final String[] srcDirNames = JimPath.of(srcPath).getDirNames();
+        final String[] dstDirNames = JimPath.of(destPath).getDirNames();
+        final Exception pathsError;
+        pathsError = checkMovePaths(srcPath, destPath, srcDirNames, dstDirNames);
+        if (pathsError != null) {
+            return Either.left(pathsError);
+        }
+
+        while (true) {
+            final PersistentDirectory current = root.get();
+            final Either<Exception, PersistentDirectory[]> srcChainEither;
+            srcChainEither = resolve(current, srcDirNames);
+            if (srcChainEither.isLeft()) {
+                return Either.left(moveError(srcPath, destPath, srcChainEither.getLeft()));
+            }
+
+            final Either<Exception, PersistentDirectory[]> destChainEither;
+            destChainEither = resolve(current, dstDirNames);
+            if (destChainEither.isLeft()) {
+                return Either.left(moveError(srcPath, destPath, destChainEither.getLeft()));
+            }
+
+            final PersistentDirectory[] srcChain = srcChainEither.get();
+            final PersistentDirectory[] destChain = destChainEither.get();
+            final PersistentDirectory src = srcChain[srcChain.length - 1];
+            final PersistentDirectory dest = destChain[destChain.length - 1];
+            for (PersistentDirectory ancestor : destChain) {
+                if (ancestor == src) {
+                    final String reason = "destination is inside the source";
+                    return Either.left(moveError(srcPath, destPath, reason));
+                }
+            }
+
+            final PersistentDirectory existing = dest.findChild(src.getName());
+            if (existing == src) {
+                return Either.right(true);
+            } else if (existing != null) {
+                final FsError reason = alreadyExistsError(src.getName());
+                return Either.left(moveError(srcPath, destPath, reason));
+            }
+
+            final int srcParentDepth = srcChain.length - 2;
+            final PersistentDirectory srcParent;
+            srcParent = srcChain[srcParentDepth].withoutChild(src);
+            final PersistentDirectory detached;
+            detached = replace(srcChain, srcParentDepth, srcParent);
+
+            // the destination is not inside the source so it still exists
+            final PersistentDirectory[] newDestChain;
+            newDestChain = resolve(detached, dstDirNames).get();
+            final int destDepth = newDestChain.length - 1;
+            final PersistentDirectory newDest;
+            newDest = newDestChain[destDepth].withChild(src);
+            final PersistentDirectory moved;
+            moved = replace(newDestChain, destDepth, newDest);
+            if (root.compareAndSet(current, moved)) {
+                return Either.right(true);
+            }
+        }
+    }
+
+    @Override
+    public final Either<Exception, Boolean> rm(final String path) {
+        final String[] dirNames = JimPath.of(path).getDirNames();
+        if (dirNames.length <= 0) {
+            return Either.left(nameRequiredError());
+        }
+
+        while (true) {
+            final PersistentDirectory current = root.get();
+            final Either<Exception, PersistentDirectory[]> chainEither;
+            chainEither = resolve(current, dirNames);
+            if (chainEither.isLeft()) {
+                return Either.left(deleteError(path, chainEither.getLeft()));
+            }
+
+            final PersistentDirectory[] chain = chainEither.get();
+            final int parentDepth = chain.length - 2;
+            final PersistentDirectory directory = chain[chain.length - 1];
+            final PersistentDirectory parent;
+            parent = chain[parentDepth].withoutChild(directory);
+            if (root.compareAndSet(current, replace(chain, parentDepth, parent))) {
+                return Either.right(true);
+            }
+        }
+    }
+
+    /**
+     * Finds a directory in the current tree.
+     * @param path of the directory.
+     * @return either an error if a directory of the path does not exist or
+     * the directory.
+     */
+    public final Either<Exception, PersistentDirectory> findDirectory(
+            final String path) {
+        final Either<Exception, PersistentDirectory[]> chainEither;
+        chainEither = resolve(root.get(), JimPath.of(path).getDirNames());
+        return chainEither.map(chain -> chain[chain.length - 1]);
+    }
+
+    /**
+     * Resolves the directories of a path.
+     * @param from the root directory the path is resolved from.
+     * @param dirNames the directory names of the path.
+     * @return either an error if a directory does not exist or the root
+     * followed by each directory of the path.
+     */
+    private static Either<Exception, PersistentDirectory[]> resolve(
+            final PersistentDirectory from,
+            final String[] dirNames) {
+        final PersistentDirectory[] chain;
+        chain = new PersistentDirectory[dirNames.length + 1];
+        chain[0] = from;
+        for (int i = 0; i < dirNames.length; i++) {
+            final PersistentDirectory child = chain[i].findChild(dirNames[i]);
+            if (child == null) {
+                return Either.left(notFoundError(dirNames[i]));
+            }
+            chain[i + 1] = child;
+        }
+        return Either.right(chain);
+    }
+
+    /**
+     * Replaces a directory of a resolved path and copies its ancestors.
+     * @param chain the root followed by each directory of the path.
+     * @param depth the index in the chain of the directory replaced.
+     * @param replacement the directory replacing it.
+     * @return the new root directory.
+     */
+    private static PersistentDirectory replace(
+            final PersistentDirectory[] chain,
+            final int depth,
+            final PersistentDirectory replacement) {
+        PersistentDirectory updated = replacement;
+        for (int i = depth - 1; i >= 0; i--) {
+            updated = chain[i].withChild(updated);
+        }
+        return updated;
+    }
+}
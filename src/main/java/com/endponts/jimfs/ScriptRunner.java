@@ -0,0 +1,82 @@
+package com.endponts.jimfs;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Runs a script of REPL commands, one per line, without prompts and with
+ * the responses written to one buffered output. The responses are those
+ * of {@link FileSystemRepl#evalTo(String, DirectoryTree, Appendable)},
+ * evaluated by one {@link CommandParser}. QUIT or EXIT ends the script.
+ * @author mw
+ * @version 0.9
+ */
+public final class ScriptRunner {
+
+    /**
+     * The size of the input and output buffers, in chars.
+     */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The tree the commands are evaluated against.
+     */
+    private final DirectoryTree fileSystem;
+    /**
+     * The output of the responses.
+     */
+    private final Writer out;
+    /**
+     * The parser of the command lines.
+     */
+    private final CommandParser parser = new CommandParser();
+
+    /**
+     * Constructs a runner.
+     * @param fileSystem the tree the commands are evaluated against.
+     * @param out the output of the responses, which should be buffered.
+     */
+    public ScriptRunner(final DirectoryTree fileSystem, final Writer out) {
+        this.fileSystem = fileSystem;
+        this.out = out;
+    }
+
+    /**
+     * Runs the commands of a script until its end or a QUIT.
+     * @param in the script, unbuffered or buffered with a
+     *           {@link BufferedReader}.
+     * @return the number of commands run, not counting a QUIT.
+     * @throws IOException if the script cannot be read or the responses
+     * cannot be written.
+     */
+    public long run(final Reader in) throws IOException {
+        final BufferedReader lines = in instanceof BufferedReader
+                ? (BufferedReader) in : new BufferedReader(in, BUFFER_SIZE);
+        long count = 0;
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+            if (!runLine(line)) {
+                break;
+            }
+            count++;
+        }
+        out.flush();
+        return count;
+    }
+
+    /**
+     * Runs one command line.
+     * @param line the command line.
+     * @return false if the command ends the script and true otherwise.
+     * @throws IOException if the response cannot be written.
+     */
+    private boolean runLine(final String line) throws IOException {
+        if (parser.parse(line) == CommandParser.Type.QUIT) {
+            return false;
+        }
+        parser.execute(fileSystem, out);
+        out.write(System.lineSeparator());
+        return true;
+    }
+}
@@ -0,0 +1,173 @@
+package com.endponts.jimfs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Reads and writes compact snapshots of a directory tree. A snapshot holds
+ * a header, the number of root children and then every directory in
+ * pre-order as its length-prefixed UTF-8 name followed by its number of
+ * children. It ends with a CRC32 of everything before it.
+ * @author mw
+ * @version 0.9
+ */
+final class SnapshotFile {
+
+    /**
+     * The first bytes of a snapshot, "JFSS".
+     */
+    private static final int MAGIC = 0x4A465353;
+    /**
+     * The version of the snapshot format.
+     */
+    private static final int VERSION = 1;
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * Writes a snapshot and forces it to the disk. The tree must not change
+     * while it is written.
+     * @param root the root directory of the tree.
+     * @param file the snapshot file, replaced if it exists.
+     * @throws IOException if the snapshot cannot be written.
+     */
+    static void write(final Directory root, final Path file)
+            throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(file.toFile())) {
+            final CheckedOutputStream checked = new CheckedOutputStream(
+                    new BufferedOutputStream(fos), new CRC32());
+            final DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(root.getDescendants().size());
+
+            final Deque<Iterator<FileSystemItem>> stack = new ArrayDeque<>();
+            stack.push(root.getDescendants().iterator());
+            while (!stack.isEmpty()) {
+                final Iterator<FileSystemItem> siblings = stack.peek();
+                if (!siblings.hasNext()) {
+                    stack.pop();
+                    continue;
+                }
+
+                final Directory dir = (Directory) siblings.next();
+                final NavigableSet<FileSystemItem> children;
+                children = dir.getDescendants();
+                final byte[] name = dir.getName()
+                        .getBytes(StandardCharsets.UTF_8);
+                out.writeInt(name.length);
+                out.write(name);
+                out.writeInt(children.size());
+                if (!children.isEmpty()) {
+                    stack.push(children.iterator());
+                }
+            }
+
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+            fos.getFD().sync();
+        }
+    }
+
+    /**
+     * Reads a snapshot into an empty file system. Every length and count
+     * is checked against the bytes left in the file before it is used, so
+     * a truncated or corrupt snapshot fails with an IOException.
+     * @param file the snapshot file.
+     * @param root the root directory of the empty file system.
+     * @throws IOException if the snapshot cannot be read or is corrupt.
+     */
+    static void read(final Path file, final Directory root)
+            throws IOException {
+        try (CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file)),
+                new CRC32())) {
+            final DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(file + " is not a snapshot");
+            }
+
+            // the bytes left after the header, less the checksum
+            final long[] left = {Files.size(file) - 3 * Integer.BYTES};
+            final Deque<Directory> parents = new ArrayDeque<>();
+            final Deque<int[]> remaining = new ArrayDeque<>();
+            parents.push(root);
+            remaining.push(new int[]{readCount(in, left, file)});
+            while (!parents.isEmpty()) {
+                final int[] siblings = remaining.peek();
+                if (siblings[0] == 0) {
+                    parents.pop();
+                    remaining.pop();
+                    continue;
+                }
+                siblings[0]--;
+
+                final int length = in.readInt();
+                left[0] -= Integer.BYTES;
+                if (length < 0 || length > left[0]) {
+                    throw corrupt(file);
+                }
+                final byte[] name = new byte[length];
+                in.readFully(name);
+                left[0] -= length;
+                final Directory parent = parents.peek();
+                final Directory dir = new Directory(
+                        new String(name, StandardCharsets.UTF_8), parent);
+                parent.addChildItem(dir);
+
+                final int children = readCount(in, left, file);
+                if (children > 0) {
+                    parents.push(dir);
+                    remaining.push(new int[]{children});
+                }
+            }
+
+            final int expected = (int) checked.getChecksum().getValue();
+            if (in.readInt() != expected) {
+                throw corrupt(file);
+            }
+        } catch (EOFException e) {
+            throw corrupt(file);
+        }
+    }
+
+    /**
+     * Reads a number of directories, each of which takes at least the
+     * bytes of its name length and child count.
+     * @param in the snapshot.
+     * @param left the bytes left, less those of the count once read.
+     * @param file the snapshot file.
+     * @return the count.
+     * @throws IOException if the count cannot fit in the bytes left.
+     */
+    private static int readCount(final DataInputStream in,
+                                 final long[] left,
+                                 final Path file) throws IOException {
+        final int count = in.readInt();
+        left[0] -= Integer.BYTES;
+        if (count < 0 || count > left[0] / (2 * Integer.BYTES)) {
+            throw corrupt(file);
+        }
+        return count;
+    }
+
+    private static IOException corrupt(final Path file) {
+        return new IOException(file + " is corrupt");
+    }
+}
@@ -0,0 +1,106 @@
+package com.endponts.jimfs;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks that directories are mapped onto. Writers lock the
+ * directories they mutate; several directories are always locked in
+ * stripe order so that concurrent moves cannot deadlock.
+ * @author mw
+ * @version 0.9
+ */
+final class StripedLocks {
+
+    /**
+     * Locks that do nothing, used when the file system is not shared
+     * between threads.
+     */
+    static final StripedLocks NONE = new StripedLocks(0);
+
+    private static final int[] NO_STRIPES = new int[0];
+
+    /**
+     * The lock stripes, empty when locking is disabled.
+     */
+    private final ReentrantLock[] stripes;
+
+    /**
+     * Constructs the locks.
+     * @param count the number of stripes, rounded up to a power of two. No
+     *              locking takes place when zero.
+     */
+    StripedLocks(final int count) {
+        final int size;
+        size = count <= 1 ? Math.max(count, 0) : Integer.highestOneBit(count - 1) << 1;
+        stripes = new ReentrantLock[size];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Locks the stripe of a directory.
+     * @param directory the directory about to be mutated.
+     */
+    void lock(final Directory directory) {
+        if (stripes.length > 0) {
+            stripes[indexFor(directory)].lock();
+        }
+    }
+
+    /**
+     * Unlocks the stripe of a directory.
+     * @param directory the directory that was mutated.
+     */
+    void unlock(final Directory directory) {
+        if (stripes.length > 0) {
+            stripes[indexFor(directory)].unlock();
+        }
+    }
+
+    /**
+     * Locks the stripes of several directories in stripe order.
+     * @param directories the directories about to be mutated or that must
+     *                    keep their children while others are.
+     * @return the stripes locked, to be passed to {@link #unlock(int[])}.
+     */
+    int[] lock(final List<Directory> directories) {
+        if (stripes.length == 0) {
+            return NO_STRIPES;
+        }
+
+        final int[] indexes = new int[directories.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = indexFor(directories.get(i));
+        }
+        Arrays.sort(indexes);
+        int count = 0;
+        for (int i = 0; i < indexes.length; i++) {
+            if (count == 0 || indexes[count - 1] != indexes[i]) {
+                indexes[count++] = indexes[i];
+            }
+        }
+        final int[] locked = Arrays.copyOf(indexes, count);
+        for (int index : locked) {
+            stripes[index].lock();
+        }
+        return locked;
+    }
+
+    /**
+     * Unlocks stripes locked with {@link #lock(List)}.
+     * @param locked the stripes locked.
+     */
+    void unlock(final int[] locked) {
+        for (int i = locked.length - 1; i >= 0; i--) {
+            stripes[locked[i]].unlock();
+        }
+    }
+
+    private int indexFor(final Directory directory) {
+        final int h = System.identityHashCode(directory);
+        return (h ^ (h >>> 16)) & (stripes.length - 1);
+    }
+}
@@ -0,0 +1,232 @@
+package com.endponts.jimfs;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Walks the descendants of a directory with an explicit stack instead of
+ * recursion, so the depth of a tree is limited only by the heap. Items are
+ * visited depth first, with the children of each directory in name order,
+ * either before their descendants (pre-order) or after them (post-order).
+ *
+ * <p>A pre-order walk splits on sibling ranges: the prefix handed out by
+ * {@link #trySplit()} is the subtree being walked or the first half of the
+ * siblings not walked yet, so parallel streams divide wide levels evenly
+ * and keep their encounter order.</p>
+ * @author mw
+ * @version 0.9
+ */
+public final class TreeWalker implements Spliterator<FileSystemItem> {
+
+    /**
+     * The orders of a walk.
+     */
+    public enum Order {
+        /**
+         * Visits each directory before its descendants.
+         */
+        PRE_ORDER,
+        /**
+         * Visits each directory after its descendants.
+         */
+        POST_ORDER
+    }
+
+    /**
+     * The order of the walk.
+     */
+    private final Order order;
+    /**
+     * The deepest depth visited.
+     */
+    private final int maxDepth;
+    /**
+     * The siblings still to visit at each level being walked, deepest on
+     * top.
+     */
+    private final Deque<Frame> stack = new ArrayDeque<>();
+    /**
+     * The depth of the last item visited.
+     */
+    private int depth;
+
+    /**
+     * Constructs a walker over some siblings and their descendants.
+     * @param siblings the items at depth 1.
+     * @param order the order of the walk.
+     * @param maxDepth the deepest depth visited, at least 1.
+     */
+    public TreeWalker(final Collection<FileSystemItem> siblings,
+                      final Order order,
+                      final int maxDepth) {
+        this(order, maxDepth);
+        stack.push(new Frame(null, siblings.iterator(), 1));
+    }
+
+    private TreeWalker(final Order order, final int maxDepth) {
+        this.order = order;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Visits the next item.
+     * @return the item or null if the walk is over.
+     */
+    public FileSystemItem next() {
+        while (!stack.isEmpty()) {
+            final Frame top = stack.peek();
+            if (!top.siblings.hasNext()) {
+                stack.pop();
+                if (order == Order.POST_ORDER && top.owner != null) {
+                    depth = top.depth - 1;
+                    return top.owner;
+                }
+                continue;
+            }
+
+            final FileSystemItem item = top.siblings.next();
+            final Collection<FileSystemItem> children = childrenOf(item, top.depth);
+            if (order == Order.PRE_ORDER) {
+                if (children != null) {
+                    stack.push(new Frame(item, children.iterator(), top.depth + 1));
+                }
+                depth = top.depth;
+                return item;
+            }
+            if (children != null) {
+                stack.push(new Frame(item, children.iterator(), top.depth + 1));
+            } else {
+                depth = top.depth;
+                return item;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Retrieves the depth of the last item visited, 1 for the siblings the
+     * walk started with.
+     * @return the depth.
+     */
+    public int depth() {
+        return depth;
+    }
+
+    @Override
+    public boolean tryAdvance(final Consumer<? super FileSystemItem> action) {
+        final FileSystemItem item = next();
+        if (item == null) {
+            return false;
+        }
+        action.accept(item);
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(final Consumer<? super FileSystemItem> action) {
+        for (FileSystemItem item = next(); item != null; item = next()) {
+            action.accept(item);
+        }
+    }
+
+    /**
+     * Splits off the items to visit first: the rest of the subtree being
+     * walked if any, otherwise the first half of the remaining siblings at
+     * the shallowest level. Post-order walks do not split.
+     * @return the walker of the prefix or null if it cannot be split.
+     */
+    @Override
+    public TreeWalker trySplit() {
+        if (order != Order.PRE_ORDER) {
+            return null;
+        }
+
+        while (!stack.isEmpty()) {
+            final Frame bottom = stack.peekLast();
+            final List<FileSystemItem> rest = new ArrayList<>();
+            bottom.siblings.forEachRemaining(rest::add);
+            if (stack.size() > 1) {
+                stack.removeLast();
+                if (rest.isEmpty()) {
+                    continue;
+                }
+                final TreeWalker prefix = new TreeWalker(order, maxDepth);
+                prefix.stack.addAll(stack);
+                stack.clear();
+                stack.push(new Frame(null, rest.iterator(), bottom.depth));
+                return prefix;
+            }
+
+            final int mid = rest.size() / 2;
+            stack.clear();
+            stack.push(new Frame(null, rest.subList(mid, rest.size()).iterator(),
+                    bottom.depth));
+            if (mid == 0) {
+                return null;
+            }
+            final TreeWalker prefix = new TreeWalker(order, maxDepth);
+            prefix.stack.push(new Frame(null, rest.subList(0, mid).iterator(),
+                    bottom.depth));
+            return prefix;
+        }
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return stack.isEmpty() ? 0 : Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | DISTINCT | NONNULL;
+    }
+
+    /**
+     * Retrieves the children of an item the walk descends into.
+     * @param item the item.
+     * @param itemDepth the depth of the item.
+     * @return the children or null if the walk does not descend.
+     */
+    private Collection<FileSystemItem> childrenOf(final FileSystemItem item,
+                                                  final int itemDepth) {
+        if (!item.isDirectory() || itemDepth >= maxDepth) {
+            return null;
+        }
+        final Collection<FileSystemItem> children;
+        children = ((Directory) item).getDescendants();
+        return children.isEmpty() ? null : children;
+    }
+
+    /**
+     * The siblings still to visit at one level.
+     */
+    private static final class Frame {
+        /**
+         * The parent of the siblings, visited after them in post-order.
+         */
+        private final FileSystemItem owner;
+        /**
+         * The siblings still to visit.
+         */
+        private final Iterator<FileSystemItem> siblings;
+        /**
+         * The depth of the siblings.
+         */
+        private final int depth;
+
+        Frame(final FileSystemItem owner,
+              final Iterator<FileSystemItem> siblings,
+              final int depth) {
+            this.owner = owner;
+            this.siblings = siblings;
+            this.depth = depth;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.endponts.jimfs;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.CharBuffer;
+
+public class TestCommandParser {
+
+    @Test
+    public void testParseSplitsCommandAndValueInPlace() {
+        // given
+        final CommandParser parser = new CommandParser();
+
+        // when
+        final CommandParser.Type create = parser.parse("  cReAtE  fruits/apples \t");
+        final String createValue = parser.getValue();
+        final CommandParser.Type move = parser.parse(CharBuffer.wrap("MOVE a b"));
+        final String moveValue = parser.getValue();
+
+        // then
+        Assertions.assertEquals(CommandParser.Type.CREATE, create);
+        Assertions.assertEquals(" fruits/apples", createValue);
+        Assertions.assertEquals(CommandParser.Type.MOVE, move);
+        Assertions.assertEquals("a b", moveValue);
+        Assertions.assertEquals(CommandParser.Type.QUIT, parser.parse("exit"));
+        Assertions.assertEquals(CommandParser.Type.LIST, parser.parse("List"));
+        Assertions.assertEquals("", parser.getValue());
+        Assertions.assertEquals(CommandParser.Type.UNKNOWN, parser.parse("CREATEX a"));
+        Assertions.assertEquals(CommandParser.Type.UNKNOWN, parser.parse(""));
+    }
+
+    @Test
+    public void testEvalRespondsLikeTheRepl() {
+        // given
+        final CommandParser parser = new CommandParser();
+        final FileSystem fs = new FileSystem();
+
+        // when
+        parser.eval("CREATE fruits/apples", fs);
+        parser.eval("CREATE grains", fs);
+
+        // then
+        Assertions.assertEquals("MOVE  fruits/apples grains",
+                parser.eval("move  fruits/apples grains", fs));
+        Assertions.assertEquals("LIST\nfruits\ngrains\n  apples\n",
+                parser.eval("list", fs));
+        Assertions.assertEquals("Unknown command: JUMP\tGRAINS",
+                parser.eval("jump\tgrains", fs));
+        Assertions.assertEquals("DELETE grains", parser.eval("DELETE grains", fs));
+        Assertions.assertEquals("Unknown command: ", parser.eval("   ", fs));
+        try {
+            parser.eval("quit", fs);
+            Assertions.fail("QUIT must end the session");
+        } catch (RuntimeException e) {
+            Assertions.assertEquals("QUIT", e.getMessage());
+        }
+    }
+}
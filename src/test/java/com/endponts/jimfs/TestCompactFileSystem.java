@@ -0,0 +1,81 @@
+package com.endponts.jimfs;
+
+import io.vavr.control.Either;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+public class TestCompactFileSystem {
+
+    @Test
+    public void testEvalMatchesFileSystem() {
+        // given
+        final String[] commands = {
+                "CREATE fruits", "CREATE vegetables", "CREATE grains", "CREATE fruits/apples",
+                "CREATE fruits/apples/fuji", "LIST", "CREATE grains/squash", "MOVE grains/squash vegetables",
+                "CREATE foods", "MOVE grains foods", "MOVE fruits foods", "MOVE vegetables foods", "LIST",
+                "DELETE fruits/apples", "DELETE foods/fruits/apples", "CREATE fru its", "MOVE foods foods",
+                "DELETE", "LIST"};
+        final FileSystem fileSystem = new FileSystem();
+        final CompactFileSystem compact = new CompactFileSystem();
+
+        for (String command : commands) {
+            // when
+            final String expected = FileSystemRepl.eval(command, fileSystem);
+            final String actual = FileSystemRepl.eval(command, compact);
+
+            // then
+            Assertions.assertEquals(expected, actual, command);
+        }
+    }
+
+    @Test
+    public void testRandomOperationsMatchPersistentFileSystem() {
+        // given
+        final Random random = new Random(42);
+        final String[] names = {"a", "B", "c", "b", "Dd", "e"};
+        final PersistentFileSystem expected = new PersistentFileSystem();
+        final CompactFileSystem compact = new CompactFileSystem();
+
+        for (int i = 0; i < 20000; i++) {
+            final String path = randomPath(random, names);
+            final Either<Exception, Boolean> want;
+            final Either<Exception, Boolean> got;
+
+            // when
+            switch (random.nextInt(3)) {
+                case 0:
+                    want = expected.mkdir(path);
+                    got = compact.mkdir(path);
+                    break;
+                case 1:
+                    want = expected.rm(path);
+                    got = compact.rm(path);
+                    break;
+                default:
+                    final String dest = randomPath(random, names);
+                    want = expected.mv(path, dest);
+                    got = compact.mv(path, dest);
+                    break;
+            }
+
+            // then
+            Assertions.assertEquals(want.isRight(), got.isRight(), path);
+            if (want.isLeft()) {
+                Assertions.assertEquals(want.getLeft().getMessage(), got.getLeft().getMessage());
+            }
+            Assertions.assertEquals(expected.ls(), compact.ls());
+        }
+        Assertions.assertEquals(expected.isEmpty(), compact.isEmpty());
+    }
+
+    private static String randomPath(final Random random, final String[] names) {
+        final StringBuilder path = new StringBuilder(names[random.nextInt(names.length)]);
+        final int depth = random.nextInt(4);
+        for (int i = 0; i < depth; i++) {
+            path.append('/').append(names[random.nextInt(names.length)]);
+        }
+        return path.toString();
+    }
+}
@@ -3,6 +3,14 @@ package com.endponts.jimfs;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
 public class TestDirectory {
 
     //////////////////////////////////////////////////////////////////////////////
@@ -70,6 +78,29 @@ public class TestDirectory {
         Assertions.assertEquals(fruitsDir.getName(), foundDirectory.getName());
     }
 
+    @Test
+    @SuppressWarnings("ConstantConditions")
+    public void testFindChildIgnoresCaseAndTracksDeletes() {
+        // given
+        final String name = "/";
+        final Directory parent = null;
+        final String childDirFruits = "Fruits";
+
+        // when
+        final Directory rootDir = new Directory(name, parent);
+        final Directory fruitsDir = new Directory(childDirFruits, rootDir);
+        rootDir.addChildItem(fruitsDir);
+        final FileSystemItem foundLower = rootDir.findChild("fruits");
+        final FileSystemItem foundUpper = rootDir.findChild("FRUITS");
+        rootDir.deleteItem(fruitsDir);
+        final FileSystemItem foundAfterDelete = rootDir.findChild("fruits");
+
+        // then
+        Assertions.assertSame(fruitsDir, foundLower);
+        Assertions.assertSame(fruitsDir, foundUpper);
+        Assertions.assertNull(foundAfterDelete);
+    }
+
     @Test
     @SuppressWarnings("ConstantConditions")
     public void testFindChildDeepDirectoryTwoDeep() {
@@ -202,4 +233,226 @@ public class TestDirectory {
 
     }
 
+    @Test
+    public void testEqualityIsByIdentityAndDeepEqualsByStructure() {
+        // given
+        final Directory first = new Directory("root", null);
+        final Directory second = new Directory("root", null);
+        for (Directory dir : new Directory[]{first, second}) {
+            final Directory fruits = new Directory("fruits", dir);
+            dir.addChildItem(fruits);
+            fruits.addChildItem(new Directory("apples", fruits));
+        }
+
+        // when
+        final boolean deepEquals = FileSystemItems.deepEquals(first, second);
+        final Directory grains = new Directory("grains", second);
+        second.addChildItem(grains);
+
+        // then
+        Assertions.assertNotEquals(first, second);
+        Assertions.assertNotEquals(first.getId(), second.getId());
+        Assertions.assertTrue(deepEquals);
+        Assertions.assertFalse(FileSystemItems.deepEquals(first, second));
+        second.deleteItem(grains);
+        Assertions.assertTrue(FileSystemItems.deepEquals(first, second));
+        Assertions.assertEquals(FileSystemItems.deepHashCode(first), FileSystemItems.deepHashCode(second));
+    }
+
+    @Test
+    public void testFindDescendantsByNameWithAndWithoutIndex() {
+        // given
+        final String[] paths = {"fruits/apples", "fruits/Pears/apples", "grains/apples/APPLES", "apples", "vegetables"};
+        final FileSystem plainFs = new FileSystem();
+        final FileSystem indexedFs = new FileSystem(false, NameValidator.DEFAULT, false, true);
+        for (String path : paths) {
+            plainFs.mkdir(path);
+            indexedFs.mkdir(path);
+        }
+        plainFs.mv("grains/apples", "vegetables");
+        indexedFs.mv("grains/apples", "vegetables");
+        plainFs.rm("fruits/Pears");
+        indexedFs.rm("fruits/Pears");
+
+        // when
+        final List<String> plain = plainFs.find("", "apples").get();
+        final List<String> indexed = indexedFs.find("", "apples").get();
+        final List<String> underVegetables = indexedFs.find("vegetables", "APPLES").get();
+
+        // then
+        Assertions.assertEquals(Arrays.asList("apples", "fruits/apples", "vegetables/apples", "vegetables/apples/APPLES"), plain);
+        Assertions.assertEquals(plain, indexed);
+        Assertions.assertEquals(Arrays.asList("vegetables/apples", "vegetables/apples/APPLES"), underVegetables);
+        Assertions.assertTrue(indexedFs.find("", "pears").get().isEmpty());
+    }
+
+    @Test
+    public void testFindDescendantByNameInDeepTree() {
+        // given
+        final Directory root = new Directory("", null);
+        Directory current = root;
+        for (int i = 0; i < 100000; i++) {
+            final Directory child = new Directory("d" + i, current);
+            current.addChildItem(child);
+            current = child;
+        }
+
+        // when
+        final FileSystemItem deepest = root.findDescendantByName("D99999");
+        final FileSystemItem missing = root.findDescendantByName("missing");
+
+        // then
+        Assertions.assertSame(current, deepest);
+        Assertions.assertNull(missing);
+    }
+
+    @Test
+    public void testWalkOrdersDepthLimitAndParallelSplits() {
+        // given
+        final FileSystem fileSystem = new FileSystem();
+        fileSystem.mkdir("a/b/c");
+        fileSystem.mkdir("a/d");
+        fileSystem.mkdir("e");
+        for (int i = 0; i < 1000; i++) {
+            fileSystem.mkdir("f/g" + i + "/h");
+        }
+        final Directory root = fileSystem.getRoot();
+
+        // when
+        final List<String> preOrder = root.walk().limit(5).map(FileSystemItem::getName).collect(Collectors.toList());
+        final List<String> postOrder = root.walk(TreeWalker.Order.POST_ORDER, Integer.MAX_VALUE).limit(5)
+                .map(FileSystemItem::getName).collect(Collectors.toList());
+        final long shallow = root.walk(TreeWalker.Order.PRE_ORDER, 1).count();
+        final List<FileSystemItem> sequential = root.walk().collect(Collectors.toList());
+        final List<FileSystemItem> parallel = root.walk().parallel().collect(Collectors.toList());
+
+        // then
+        Assertions.assertEquals(Arrays.asList("a", "b", "c", "d", "e"), preOrder);
+        Assertions.assertEquals(Arrays.asList("c", "b", "d", "a", "e"), postOrder);
+        Assertions.assertEquals(3, shallow);
+        Assertions.assertEquals(2006, sequential.size());
+        Assertions.assertEquals(sequential, parallel);
+    }
+
+    @Test
+    public void testLsOfDeepTree() throws IOException {
+        // given
+        final FileSystem fileSystem = new FileSystem();
+        final StringBuilder path = new StringBuilder("d");
+        for (int i = 1; i < 5000; i++) {
+            path.append("/d");
+        }
+        fileSystem.mkdir(path.toString());
+        final int[] lines = {0};
+        final Appendable lineCounter = new Appendable() {
+            @Override
+            public Appendable append(final CharSequence csq) {
+                return this;
+            }
+
+            @Override
+            public Appendable append(final CharSequence csq, final int start, final int end) {
+                return this;
+            }
+
+            @Override
+            public Appendable append(final char c) {
+                lines[0] += c == '\n' ? 1 : 0;
+                return this;
+            }
+        };
+
+        // when
+        fileSystem.ls(lineCounter);
+
+        // then
+        Assertions.assertEquals(5000, lines[0]);
+    }
+
+    @Test
+    public void testDeletingAStaleChildKeepsItsReplacement() {
+        // given
+        final Directory root = new Directory("/", null);
+        final Directory stale = new Directory("fruits", root);
+        root.addChildItem(stale);
+        stale.addChildItem(new Directory("apples", stale));
+        Assertions.assertTrue(root.deleteItem(stale));
+        final Directory replacement = new Directory("fruits", root);
+        root.addChildItem(replacement);
+
+        // when
+        final boolean deleted = root.deleteItem(stale);
+
+        // then
+        Assertions.assertFalse(deleted);
+        Assertions.assertNull(stale.getParent());
+        Assertions.assertSame(replacement, root.findChild("FRUITS"));
+        Assertions.assertEquals(1, root.getDescendants().size());
+        Assertions.assertEquals(1, root.getSubtreeCount());
+    }
+
+    @Test
+    public void testIndexedFindKeepsTourOrderAcrossRelabelling() {
+        // given
+        final FileSystem plainFs = new FileSystem();
+        final FileSystem indexedFs = new FileSystem(false, NameValidator.DEFAULT, false, true);
+        for (int i = 999; i >= 0; i--) {
+            // each child sorts first, so it always goes right after p
+            final String path = String.format("p/n%04d/leaf", i);
+            plainFs.mkdir(path);
+            indexedFs.mkdir(path);
+        }
+        String deep = "deep";
+        for (int i = 0; i < 500; i++) {
+            deep += "/leaf";
+        }
+        plainFs.mkdir(deep);
+        indexedFs.mkdir(deep);
+
+        // when
+        plainFs.mv("deep/leaf/leaf", "p");
+        indexedFs.mv("deep/leaf/leaf", "p");
+        final List<String> plain = plainFs.find("", "leaf").get();
+        final List<String> indexed = indexedFs.find("", "leaf").get();
+
+        // then
+        Assertions.assertEquals(1000 + 500, indexed.size());
+        Assertions.assertEquals(plain, indexed);
+        Assertions.assertEquals(plainFs.find("p/leaf", "LEAF").get(),
+                indexedFs.find("p/leaf", "LEAF").get());
+        Assertions.assertEquals(List.of("p/n0500/leaf"),
+                indexedFs.find("p/n0500", "leaf").get());
+    }
+
+    @Test
+    public void testIndexedFindForgetsSubtreesRemovedDuringMkdirs() throws Exception {
+        // given
+        final FileSystem fileSystem = new FileSystem(true, NameValidator.DEFAULT, false, true);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        // when
+        final Future<?> maker = executor.submit(() -> {
+            for (int i = 0; i < 3000; i++) {
+                fileSystem.mkdir("x/y/leaf" + i % 10 + "/leaf");
+            }
+        });
+        final Future<?> remover = executor.submit(() -> {
+            for (int i = 0; i < 3000; i++) {
+                fileSystem.rm("x");
+            }
+        });
+        maker.get();
+        remover.get();
+        executor.shutdown();
+
+        // then
+        long listed = 0;
+        for (String line : fileSystem.ls().split("\n")) {
+            if (line.trim().equals("leaf")) {
+                listed++;
+            }
+        }
+        Assertions.assertEquals(listed, fileSystem.find("", "leaf").get().size());
+    }
+
 }
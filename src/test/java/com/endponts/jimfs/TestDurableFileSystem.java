@@ -0,0 +1,180 @@
+package com.endponts.jimfs;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class TestDurableFileSystem {
+
+    private Path directory;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("jimfs");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testRecoversJournaledCommands() throws IOException {
+        // given
+        final String expected;
+        try (DurableFileSystem fs = DurableFileSystem.open(directory)) {
+            fs.mkdir("fruits/apples/fuji");
+            fs.mkdir("grains/squash");
+            fs.mkdir("vegetables");
+            fs.mv("grains/squash", "vegetables");
+            Assertions.assertTrue(fs.cp("fruits", "vegetables").isRight());
+            fs.rm("fruits/apples/fuji");
+            Assertions.assertTrue(fs.mkdir("fru its").isLeft());
+            expected = fs.ls();
+        }
+
+        // when
+        try (DurableFileSystem recovered = DurableFileSystem.open(directory)) {
+
+            // then
+            Assertions.assertEquals(expected, recovered.ls());
+        }
+    }
+
+    @Test
+    public void testRecoversFromSnapshotAndJournalTail() throws IOException {
+        // given
+        final String expected;
+        try (DurableFileSystem fs = DurableFileSystem.open(directory, 3)) {
+            for (int i = 0; i < 10; i++) {
+                fs.mkdir("a/b" + i);
+            }
+            fs.rm("a/b4");
+            expected = fs.ls();
+        }
+
+        // when
+        try (DurableFileSystem recovered = DurableFileSystem.open(directory, 3)) {
+
+            // then
+            Assertions.assertEquals(expected, recovered.ls());
+            Assertions.assertTrue(Files.exists(directory.resolve("snapshot-3.bin")));
+            Assertions.assertFalse(Files.exists(directory.resolve("snapshot-2.bin")));
+            Assertions.assertFalse(Files.exists(directory.resolve("journal-2.log")));
+        }
+    }
+
+    @Test
+    public void testIgnoresTornJournalTail() throws IOException {
+        // given
+        try (DurableFileSystem fs = DurableFileSystem.open(directory)) {
+            fs.mkdir("fruits");
+        }
+        Files.write(directory.resolve("journal-0.log"), new byte[]{0, 0, 0, 42, 1, 2},
+                StandardOpenOption.APPEND);
+
+        // when
+        try (DurableFileSystem recovered = DurableFileSystem.open(directory)) {
+            recovered.mkdir("grains");
+        }
+        try (DurableFileSystem recovered = DurableFileSystem.open(directory)) {
+
+            // then
+            Assertions.assertEquals("fruits\ngrains\n", recovered.ls());
+        }
+    }
+
+    @Test
+    public void testReplaysJournalsNewerThanTheLatestSnapshot() throws IOException {
+        // given
+        try (DurableFileSystem fs = DurableFileSystem.open(directory)) {
+            fs.mkdir("fruits");
+        }
+        // a journal started before its snapshot was written
+        try (Journal journal = new Journal(directory.resolve("journal-1.log"), 0)) {
+            journal.sync(journal.append(Command.create("grains")));
+        }
+
+        // when
+        try (DurableFileSystem recovered = DurableFileSystem.open(directory)) {
+            recovered.mkdir("vegetables");
+        }
+        try (DurableFileSystem recovered = DurableFileSystem.open(directory)) {
+
+            // then
+            Assertions.assertEquals("fruits\ngrains\nvegetables\n", recovered.ls());
+        }
+    }
+
+    @Test
+    public void testFailsClosedWhenASnapshotCannotBeWritten() throws IOException {
+        // given
+        final DurableFileSystem fs = DurableFileSystem.open(directory);
+        fs.mkdir("fruits");
+        tearDown();
+
+        // when
+        try {
+            fs.snapshot();
+            Assertions.fail("the snapshot must fail without a data directory");
+        } catch (IOException e) {
+            Assertions.assertEquals("File system failed, reopen it to recover",
+                    e.getMessage());
+        }
+
+        // then
+        Assertions.assertTrue(fs.mkdir("grains").isLeft());
+        Assertions.assertTrue(fs.ls("fruits", 1, null).isLeft());
+        try {
+            fs.ls();
+            Assertions.fail("reads must fail once the file system failed");
+        } catch (UncheckedIOException e) {
+            Assertions.assertTrue(e.getCause().getCause() instanceof IOException);
+        }
+        Files.createDirectories(directory);
+    }
+
+    @Test
+    public void testRejectsCorruptSnapshots() throws IOException {
+        // given
+        try (DurableFileSystem fs = DurableFileSystem.open(directory)) {
+            fs.mkdir("fruits/apples");
+            fs.snapshot();
+        }
+        final Path snapshot = directory.resolve("snapshot-1.bin");
+        final byte[] bytes = Files.readAllBytes(snapshot);
+        final byte[][] corrupt = {
+                Arrays.copyOf(bytes, 14),
+                Arrays.copyOf(bytes, bytes.length - 5),
+                bytes.clone(),
+                bytes.clone()
+        };
+        // a root count and then a name length far beyond the file
+        corrupt[2][8] = 0x7f;
+        corrupt[3][12] = (byte) 0xff;
+
+        for (byte[] content : corrupt) {
+            // when
+            Files.write(snapshot, content);
+            try (DurableFileSystem fs = DurableFileSystem.open(directory)) {
+
+                // then
+                Assertions.fail("a corrupt snapshot must not be loaded");
+            } catch (IOException e) {
+                Assertions.assertEquals(snapshot + " is corrupt", e.getMessage());
+            }
+        }
+    }
+}
@@ -1,8 +1,22 @@
 package com.endponts.jimfs;
 
+import io.vavr.control.Either;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class TestFileSystem {
 
@@ -35,4 +49,579 @@ public class TestFileSystem {
         int emptyActual = 0;
         assertEquals(invalidDirectoryNames.length, emptyActual);
     }
+
+    @Test
+    public void testLsToAppendableMatchesLs() throws IOException {
+        // given
+        final String[] paths = {"fruits/apples/fuji", "grains", "vegetables/squash"};
+
+        // when
+        final FileSystem fileSystem = new FileSystem();
+        for (String path : paths) {
+            fileSystem.mkdir(path);
+        }
+        final StringWriter out = new StringWriter();
+        fileSystem.ls(out);
+
+        // then
+        final String expected = """
+                fruits
+                  apples
+                    fuji
+                grains
+                vegetables
+                  squash
+                """;
+        assertEquals(expected, fileSystem.ls());
+        assertEquals(expected, out.toString());
+    }
+
+    @Test
+    public void testConcurrentMkdirMvRm() throws Exception {
+        // given
+        final int threads = 8;
+        final int dirsPerThread = 500;
+
+        // when
+        final FileSystem fileSystem = new FileSystem(true);
+        fileSystem.mkdir("left");
+        fileSystem.mkdir("right");
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<Future<Boolean>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            futures.add(executor.submit(() -> {
+                boolean ok = true;
+                for (int i = 0; i < dirsPerThread; i++) {
+                    final String name = "t" + thread + "d" + i;
+                    ok &= fileSystem.mkdir("left/" + name + "/child").isRight();
+                    ok &= fileSystem.mv("left/" + name, "right").isRight();
+                    if (i % 2 == 0) {
+                        ok &= fileSystem.rm("right/" + name).isRight();
+                    }
+                }
+                return ok;
+            }));
+        }
+        for (Future<Boolean> future : futures) {
+            assertTrue(future.get());
+        }
+        executor.shutdown();
+
+        // then
+        final String[] lines = fileSystem.ls().split("\n");
+        final int expectedLines = 2 + threads * dirsPerThread;
+        assertTrue(fileSystem.isConcurrent());
+        assertEquals(expectedLines, lines.length);
+        assertEquals("left", lines[0]);
+        assertEquals("right", lines[1]);
+    }
+
+    @Test
+    public void testApplyMatchesSingleOperations() {
+        // given
+        final List<Command> commands = Arrays.asList(
+                Command.create("a/b/c/d1"),
+                Command.create("a/b/c/d2"),
+                Command.create("a/b/c/d 3"),
+                Command.create("a/b/e"),
+                Command.delete("a/b/c/d1"),
+                Command.delete("a/b/c/d1"),
+                Command.create("a/b/c/d1/f"),
+                Command.move("a/b/e", "a/b/c"),
+                Command.create("a/b/e/g"),
+                Command.move("a/b/c/missing", "a"),
+                Command.delete("a/b/c/e"));
+
+        // when
+        final FileSystem batchFs = new FileSystem();
+        final FileSystem singleFs = new FileSystem();
+        final List<Either<Exception, Boolean>> results = batchFs.apply(commands);
+        final List<String> expected = new ArrayList<>();
+        final List<String> actual = new ArrayList<>();
+        for (int i = 0; i < commands.size(); i++) {
+            final Command command = commands.get(i);
+            final Either<Exception, Boolean> single;
+            switch (command.getType()) {
+                case CREATE:
+                    single = singleFs.mkdir(command.getPath());
+                    break;
+                case DELETE:
+                    single = singleFs.rm(command.getPath());
+                    break;
+                default:
+                    single = singleFs.mv(command.getPath(), command.getDestPath());
+                    break;
+            }
+            expected.add(single.isLeft() ? single.getLeft().getMessage() : "ok");
+            final Either<Exception, Boolean> batch = results.get(i);
+            actual.add(batch.isLeft() ? batch.getLeft().getMessage() : "ok");
+        }
+
+        // then
+        assertEquals(expected, actual);
+        assertEquals(singleFs.ls(), batchFs.ls());
+        assertEquals("a\n  b\n    c\n      d1\n        f\n      d2\n    e\n      g\n", batchFs.ls());
+    }
+
+    @Test
+    public void testPathIndexFollowsMovesAndDeletes() {
+        // given
+        final String[] commands = {
+                "CREATE a/b/c/d/e", "CREATE x", "MOVE a/b/c/d/e a", "MOVE A/B/C/D/E x",
+                "CREATE a/b/c/d/e", "MOVE a/b x", "CREATE a/b/c/d", "DELETE a/b/c/d",
+                "MOVE x/b/c/d/e a", "DELETE X/B/C", "MOVE x/b/c/d a", "CREATE a/E/f", "LIST"};
+        final FileSystem plainFs = new FileSystem();
+        final FileSystem indexedFs = new FileSystem(false, NameValidator.DEFAULT, true);
+
+        for (String command : commands) {
+            // when
+            final String expected = FileSystemRepl.eval(command, plainFs);
+            final String actual = FileSystemRepl.eval(command, indexedFs);
+
+            // then
+            assertEquals(expected, actual, command);
+        }
+        assertEquals(plainFs.ls(), indexedFs.ls());
+    }
+
+    @Test
+    public void testPathIndexOnlyDropsPathsThroughUnlinkedDirectories() {
+        // given
+        final FileSystem fileSystem = new FileSystem();
+        fileSystem.mkdir("a/b/c/d");
+        fileSystem.mkdir("a/x/y");
+        final Directory b = fileSystem.findDirectory(new String[]{"a", "b"}).get();
+        final Directory d = fileSystem.findDirectory(new String[]{"a", "b", "c", "d"}).get();
+        final Directory y = fileSystem.findDirectory(new String[]{"a", "x", "y"}).get();
+        final PathIndex index = new PathIndex();
+        index.put(JimPath.of("a/b/c/d"), d, index.epoch());
+
+        // when
+        index.invalidate(y);
+        final Directory afterUnrelated = index.get(JimPath.of("a/b/c/d"));
+        index.invalidate(b);
+        final Directory afterAncestor = index.get(JimPath.of("a/b/c/d"));
+        index.put(JimPath.of("a/b/c/d"), d, index.epoch());
+
+        // then
+        assertEquals(d, afterUnrelated);
+        assertEquals(null, afterAncestor);
+        assertEquals(d, index.get(JimPath.of("a/b/c/d")));
+    }
+
+    @Test
+    public void testLsParallelMatchesLs() throws IOException {
+        // given
+        final FileSystem emptyFs = new FileSystem();
+        final FileSystem fileSystem = new FileSystem();
+        for (int i = 0; i < 40000; i++) {
+            fileSystem.mkdir("wide/w" + i);
+        }
+        for (int i = 0; i < 30000; i++) {
+            fileSystem.mkdir("balanced/b" + i % 7 + "/c" + i % 101 + "/d" + i);
+        }
+        final StringBuilder deep = new StringBuilder("deep");
+        for (int i = 0; i < 2000; i++) {
+            deep.append("/d").append(i);
+            fileSystem.mkdir(deep + "/leaf" + i);
+        }
+        final ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            // when
+            final String parallel = fileSystem.lsParallel(pool);
+            final StringBuilder streamed = new StringBuilder();
+            fileSystem.lsParallel(streamed, pool);
+
+            // then
+            assertEquals(fileSystem.ls(), parallel);
+            assertEquals(parallel, streamed.toString());
+            assertEquals("", emptyFs.lsParallel(pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testCachedLsFollowsMutations() {
+        // given
+        final FileSystem plain = new FileSystem();
+        final FileSystem cached = new FileSystem(false, NameValidator.DEFAULT,
+                false, false, true);
+        final List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            paths.add("a" + i % 3 + "/b" + i % 17 + "/c" + i % 89 + "/d" + i);
+        }
+        final Random random = new Random(17);
+
+        for (int round = 0; round < 300; round++) {
+            // when
+            final String path = paths.get(random.nextInt(paths.size()));
+            final String other = paths.get(random.nextInt(paths.size()));
+            final String src = path.substring(0, path.indexOf('/', 3));
+            switch (round % 3) {
+                case 0:
+                    plain.mkdir(path);
+                    cached.mkdir(path);
+                    break;
+                case 1:
+                    plain.mv(src, other);
+                    cached.mv(src, other);
+                    break;
+                default:
+                    plain.rm(src);
+                    cached.rm(src);
+                    break;
+            }
+
+            // then
+            final String expected = plain.ls();
+            assertEquals(expected, cached.ls());
+            assertEquals(expected.length(),
+                    cached.getRoot().getSubtreeLength(0));
+            assertEquals(expected.chars().filter(c -> c == '\n').count(),
+                    cached.getRoot().getSubtreeCount());
+        }
+    }
+
+    @Test
+    public void testLsPagesResumeFromCursor() {
+        // given
+        final FileSystem fileSystem = new FileSystem();
+        for (int i = 0; i < 500; i++) {
+            fileSystem.mkdir("a" + i % 3 + "/b" + i % 11 + "/c" + i);
+        }
+
+        // when
+        final StringBuilder pages = new StringBuilder();
+        String cursor = null;
+        int count = 0;
+        do {
+            final ListingPage page;
+            page = fileSystem.lsPage("", Integer.MAX_VALUE, 7, cursor).get();
+            assertTrue(page.size() <= 7);
+            pages.append(page.getListing());
+            cursor = page.getCursor();
+            count++;
+        } while (cursor != null);
+
+        // then
+        assertEquals(fileSystem.ls(), pages.toString());
+        assertEquals((3 + 33 + 500 + 6) / 7, count);
+    }
+
+    @Test
+    public void testLsPageOfSubtreeSurvivesDeletedCursor() {
+        // given
+        final FileSystem fileSystem = new FileSystem();
+        fileSystem.mkdir("fruits/apples/fuji");
+        fileSystem.mkdir("fruits/bananas/cavendish");
+        fileSystem.mkdir("fruits/cherries");
+        fileSystem.mkdir("vegetables");
+
+        // when
+        final ListingPage first = fileSystem.lsPage("FRUITS", 1, 1, "").get();
+        fileSystem.rm("fruits/apples");
+        final ListingPage second;
+        second = fileSystem.lsPage("fruits", 1, 5, first.getCursor()).get();
+
+        // then
+        assertEquals("apples\n", first.getListing());
+        assertTrue(first.hasMore());
+        assertEquals("bananas\ncherries\n", second.getListing());
+        assertEquals(null, second.getCursor());
+        assertTrue(fileSystem.lsPage("fruits", 1, 5, "%%").isLeft());
+        assertTrue(fileSystem.lsPage("grains", 1, 5, null).isLeft());
+    }
+
+    @Test
+    public void testLsOfSubtreeWithPrefixFilter() {
+        // given
+        final FileSystem fileSystem = new FileSystem();
+        for (String name : new String[]{"ab", "abc", "abd", "ac", "b", "a*b"}) {
+            fileSystem.mkdir("root/" + name + "/ab" + name);
+        }
+
+        // when
+        final String prefixed = fileSystem.ls("root", 2, Glob.compile("ab?")).get();
+        final String starred = fileSystem.ls("root", 1, Glob.compile("a*b")).get();
+        final String literal = fileSystem.ls("root", 5, Glob.compile("ab")).get();
+
+        // then
+        assertEquals("abc\nabd\n", prefixed);
+        assertEquals("a*b\nab\n", starred);
+        assertEquals("ab\n", literal);
+        assertEquals(fileSystem.ls(), fileSystem.ls("", Integer.MAX_VALUE, null).get());
+        assertTrue(fileSystem.ls("root", 0, null).isLeft());
+    }
+
+    @Test
+    public void testFailuresAreStacklessCodedErrors() {
+        // given
+        final FileSystem fileSystem = new FileSystem();
+        fileSystem.mkdir("fruits/apples");
+
+        // when
+        final Exception missing = fileSystem.mv("fruits/pears", "fruits").getLeft();
+        final Exception delete = fileSystem.rm("grains/rice").getLeft();
+
+        // then
+        assertEquals(FsError.Code.MOVE_FAILED, ((FsError) missing).getCode());
+        assertEquals(0, missing.getStackTrace().length);
+        assertEquals("Cannot move [fruits/pears] to [fruits] - pears does not exist",
+                missing.getMessage());
+        assertEquals(FsError.Code.DELETE_FAILED, ((FsError) delete).getCode());
+        assertEquals("Cannot delete grains/rice - grains does not exist",
+                delete.getMessage());
+        assertTrue(delete instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void testCopiesAreIndependentOfTheirSource() {
+        for (boolean indexNames : new boolean[]{false, true}) {
+            // given
+            final FileSystem fileSystem = new FileSystem(false,
+                    NameValidator.DEFAULT, false, indexNames);
+            for (int i = 0; i < 300; i++) {
+                fileSystem.mkdir("template/a" + i % 3 + "/b" + i % 7 + "/c" + i);
+            }
+            fileSystem.mkdir("projects/one");
+            final String template = fileSystem.ls("template", Integer.MAX_VALUE, null).get();
+
+            // when
+            assertTrue(fileSystem.cp("template", "projects/one").isRight());
+            assertTrue(fileSystem.cp("projects/one/template", "projects").isRight());
+            fileSystem.mkdir("template/a0/b0/extra");
+            fileSystem.rm("template/a1");
+            fileSystem.mv("template/a2/b3", "template");
+            fileSystem.mkdir("projects/template/a1/b1/mine");
+
+            // then
+            assertEquals(template, fileSystem.ls("projects/one/template",
+                    Integer.MAX_VALUE, null).get());
+            assertEquals(List.of("template/a0/b0/extra"),
+                    fileSystem.find("", "extra").get());
+            assertEquals(List.of("projects/template/a1/b1/mine"),
+                    fileSystem.find("", "mine").get());
+            assertEquals(2, fileSystem.find("", "a1").get().size());
+            assertEquals(fileSystem.ls().length(),
+                    fileSystem.getRoot().getSubtreeLength(0));
+            assertEquals("Cannot copy [template] to [template/a0] - "
+                    + "destination is inside the source",
+                    fileSystem.cp("template", "template/a0").getLeft().getMessage());
+            assertEquals("Cannot copy [projects/template] to [projects/one] - "
+                    + "template already exists",
+                    fileSystem.cp("projects/template", "projects/one").getLeft().getMessage());
+            assertEquals("Cannot copy [pears] to [projects] - pears does not exist",
+                    fileSystem.cp("pears", "projects").getLeft().getMessage());
+        }
+    }
+
+    @Test
+    public void testDeletedCopiesStopWaitingForTheirSource() {
+        // given
+        final FileSystem fileSystem = new FileSystem();
+        for (int i = 0; i < 100; i++) {
+            fileSystem.mkdir("src/c" + i + "/leaf");
+        }
+        fileSystem.mkdir("dst");
+        final long pending = fileSystem.getRoot().getPendingCopyCount();
+
+        // when
+        for (int round = 0; round < 3; round++) {
+            fileSystem.cp("src", "dst");
+            fileSystem.mkdir("src/c0/new" + round);
+            fileSystem.rm("dst/src");
+        }
+
+        // then
+        assertEquals(pending, fileSystem.getRoot().getPendingCopyCount());
+        assertEquals(fileSystem.ls().length(),
+                fileSystem.getRoot().getSubtreeLength(0));
+    }
+
+    @Test
+    public void testReadingACopyLeavesItShared() {
+        for (boolean cacheListing : new boolean[]{false, true}) {
+            // given
+            final FileSystem fileSystem = new FileSystem(false,
+                    NameValidator.DEFAULT, false, false, cacheListing);
+            for (int i = 0; i < 100; i++) {
+                fileSystem.mkdir("src/c" + i + "/leaf");
+            }
+            fileSystem.mkdir("dst");
+            fileSystem.cp("src", "dst");
+
+            // when
+            final String copied = fileSystem.ls("dst/src", Integer.MAX_VALUE, null).get();
+            final List<String> leaves = fileSystem.find("dst", "leaf").get();
+            fileSystem.ls();
+            final long pending = fileSystem.getRoot().getPendingCopyCount();
+            fileSystem.mkdir("src/c0/leaf/new");
+
+            // then
+            assertEquals(1, pending);
+            assertEquals(100, leaves.size());
+            assertEquals("dst/src/c0/leaf", leaves.get(0));
+            assertEquals(copied, fileSystem.ls("dst/src", Integer.MAX_VALUE, null).get());
+            assertEquals(List.of("src/c0/leaf/new"), fileSystem.find("", "new").get());
+            assertEquals(fileSystem.lsParallel(), fileSystem.ls());
+        }
+    }
+
+    @Test
+    public void testMvRejectsCyclesAndCollisions() {
+        // given
+        final FileSystem fileSystem = new FileSystem();
+        fileSystem.mkdir("fruits/apples/fuji");
+        fileSystem.mkdir("grains/apples");
+        final String before = fileSystem.ls();
+
+        // when
+        final Exception cycle = fileSystem.mv("fruits", "fruits/apples/fuji").getLeft();
+        final Exception self = fileSystem.mv("fruits", "fruits").getLeft();
+        final Exception collision = fileSystem.mv("grains/apples", "fruits").getLeft();
+        final Either<Exception, Boolean> inPlace = fileSystem.mv("fruits/apples", "fruits");
+
+        // then
+        assertEquals("Cannot move [fruits] to [fruits/apples/fuji] - "
+                + "destination is inside the source", cycle.getMessage());
+        assertEquals(FsError.Code.MOVE_FAILED, ((FsError) self).getCode());
+        assertEquals("Cannot move [grains/apples] to [fruits] - "
+                + "apples already exists", collision.getMessage());
+        assertTrue(inPlace.isRight());
+        assertEquals(before, fileSystem.ls());
+        assertTrue(fileSystem.mv("fruits/apples/fuji", "grains/apples").isRight());
+        assertTrue(fileSystem.rm("grains/apples/fuji").isRight());
+        assertEquals("fruits\n  apples\ngrains\n  apples\n", fileSystem.ls());
+    }
+
+    @Test
+    public void testConcurrentCrossMovesNeverFormCycles() throws Exception {
+        // given
+        final int threads = 4;
+        final int moves = 2000;
+        final FileSystem fileSystem = new FileSystem(true);
+        fileSystem.mkdir("r/a/x");
+        fileSystem.mkdir("r/b/y");
+
+        // when
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final String src = t % 2 == 0 ? "a" : "b";
+            final String dest = t % 2 == 0 ? "b" : "a";
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < moves; i++) {
+                    // racing a into b against b into a
+                    fileSystem.mv("r/" + src, "r/" + dest);
+                    fileSystem.mv("r/" + dest + "/" + src, "r");
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // then
+        final String tree = fileSystem.ls();
+        assertEquals(5, tree.split("\n").length);
+        assertEquals(tree.length(), fileSystem.getRoot().getSubtreeLength(0));
+    }
+
+    @Test
+    public void testCachedSizesFollowMkdirsRacingMoves() throws Exception {
+        // given
+        final FileSystem fileSystem = new FileSystem(true,
+                NameValidator.DEFAULT, false, false, true);
+        fileSystem.mkdir("r/a/x");
+        fileSystem.mkdir("r/b/y");
+        fileSystem.ls();
+
+        // when
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final Future<?> mover = executor.submit(() -> {
+            for (int i = 0; i < 2000; i++) {
+                fileSystem.mv("r/a", "r/b");
+                fileSystem.mv("r/b/a", "r");
+            }
+        });
+        final Future<?> maker = executor.submit(() -> {
+            for (int i = 0; i < 2000; i++) {
+                fileSystem.mkdir("r/a/x/d" + i);
+                fileSystem.ls();
+            }
+        });
+        mover.get();
+        maker.get();
+        executor.shutdown();
+
+        // then
+        final String tree = fileSystem.lsParallel();
+        assertEquals(tree, fileSystem.ls());
+        assertEquals(tree.length(), fileSystem.getRoot().getSubtreeLength(0));
+        assertEquals(tree.split("\n").length,
+                fileSystem.getRoot().getSubtreeCount());
+    }
+
+    @Test
+    public void testCopiesRacingMovesNeverCopyIntoThemselves() throws Exception {
+        // given
+        final FileSystem fileSystem = new FileSystem(true);
+        fileSystem.mkdir("r/a/x");
+        fileSystem.mkdir("r/b");
+
+        // when
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final Future<?> mover = executor.submit(() -> {
+            for (int i = 0; i < 1000; i++) {
+                fileSystem.mv("r/b", "r/a/x");
+                fileSystem.mv("r/a/x/b", "r");
+            }
+        });
+        final Future<?> copier = executor.submit(() -> {
+            for (int i = 0; i < 1000; i++) {
+                fileSystem.cp("r/a", "r/b");
+                fileSystem.rm("r/b/a");
+                fileSystem.rm("r/a/x/b/a");
+            }
+        });
+        mover.get();
+        copier.get();
+        executor.shutdown();
+
+        // then
+        final String tree = fileSystem.ls();
+        assertEquals(tree, fileSystem.lsParallel());
+        assertEquals(tree.split("\\n").length,
+                fileSystem.getRoot().getSubtreeCount());
+        assertTrue(fileSystem.find("", "x").get().size() <= 2);
+    }
+
+    @Test
+    public void testListingPartsMatchTheListing() {
+        for (boolean cacheListing : new boolean[]{false, true}) {
+            // given
+            final FileSystem fileSystem = new FileSystem(true,
+                    NameValidator.DEFAULT, false, false, cacheListing);
+            for (int i = 0; i < 3000; i++) {
+                fileSystem.mkdir("a" + i % 7 + "/b" + i % 50 + "/c" + i);
+            }
+            fileSystem.ls();
+            fileSystem.mv("a3/b10", "a5");
+
+            // when
+            final StringBuilder parts = new StringBuilder();
+            int count = 0;
+            for (Iterator<String> it = fileSystem.lsParts(); it.hasNext(); count++) {
+                parts.append(it.next());
+            }
+
+            // then
+            assertEquals(fileSystem.ls(), parts.toString());
+            assertTrue(count > 1);
+        }
+    }
 }
@@ -0,0 +1,105 @@
+package com.endponts.jimfs;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class TestFileSystemImage {
+
+    @Test
+    public void testImageListsAndFindsLikeFileSystem() throws IOException {
+        // given
+        final FileSystem fileSystem = new FileSystem();
+        fileSystem.mkdir("fruits/apples/fuji");
+        fileSystem.mkdir("fruits/Bananas");
+        fileSystem.mkdir("fruits/cherries");
+        fileSystem.mkdir("grains/squash");
+        fileSystem.mkdir("vegetables");
+        final Path file = Files.createTempFile("jimfs", ".img");
+
+        try {
+            // when
+            FileSystemImage.write(fileSystem, file);
+            final FileSystemImage image = FileSystemImage.open(file);
+
+            // then
+            Assertions.assertEquals(fileSystem.ls(), image.ls());
+            Assertions.assertFalse(image.isEmpty());
+            final int bananas = image.findDirectory("FRUITS/bananas").get();
+            Assertions.assertEquals("Bananas", image.getName(bananas));
+            final int apples = image.findDirectory("fruits/apples").get();
+            Assertions.assertEquals(1, image.getChildCount(apples));
+            Assertions.assertEquals("pears does not exist",
+                    image.findDirectory("fruits/pears").getLeft().getMessage());
+            Assertions.assertTrue(image.mkdir("pears").isLeft());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testEmptyImage() throws IOException {
+        // given
+        final Path file = Files.createTempFile("jimfs", ".img");
+
+        try {
+            // when
+            FileSystemImage.write(new FileSystem(), file);
+            final FileSystemImage image = FileSystemImage.open(file);
+
+            // then
+            Assertions.assertTrue(image.isEmpty());
+            Assertions.assertEquals("", image.ls());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testCorruptImageFailsWithIOException() throws IOException {
+        // given
+        final FileSystem fileSystem = new FileSystem();
+        fileSystem.mkdir("fruits/apples");
+        final Path file = Files.createTempFile("jimfs", ".img");
+
+        try {
+            FileSystemImage.write(fileSystem, file);
+            final byte[] bytes = Files.readAllBytes(file);
+            Assertions.assertFalse(Files.exists(
+                    file.resolveSibling(file.getFileName() + ".tmp")));
+
+            // when
+            final byte[] tooManyNodes = bytes.clone();
+            tooManyNodes[8] = 0x7f;
+            Files.write(file, tooManyNodes);
+            try {
+                FileSystemImage.open(file);
+                Assertions.fail("the node table does not fit in the file");
+            } catch (IOException e) {
+                // then
+                Assertions.assertEquals("Corrupt file system image", e.getMessage());
+            }
+
+            // when
+            final byte[] badName = bytes.clone();
+            // the name length of the first child of the root
+            badName[12 + 24 + 4] = 0x7f;
+            Files.write(file, badName);
+            final FileSystemImage image = FileSystemImage.open(file);
+            try {
+                image.ls();
+                Assertions.fail("the name does not fit in the pool");
+            } catch (UncheckedIOException e) {
+                // then
+                Assertions.assertEquals("Corrupt file system image",
+                        e.getCause().getMessage());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -3,6 +3,8 @@ package com.endponts.jimfs;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+
 
 public class TestFileSystemRepl {
 
@@ -439,4 +441,67 @@ public class TestFileSystemRepl {
         Assertions.assertEquals(thirdListExpected, thirdListRes);
     }
 
+    @Test
+    public void testEvalToStreamsSameOutputAsEval() throws IOException {
+        // given
+        final String[] inputs = {"LIST", "CREATE fruits/apples", "list", "DELETE fruits/grains"};
+
+        // when
+        final FileSystem evalFs = new FileSystem();
+        final FileSystem evalToFs = new FileSystem();
+        final StringBuilder expected = new StringBuilder();
+        final StringBuilder actual = new StringBuilder();
+        for (String input : inputs) {
+            expected.append(FileSystemRepl.eval(input, evalFs)).append(System.lineSeparator());
+            FileSystemRepl.evalTo(input, evalToFs, actual);
+        }
+
+        // then
+        Assertions.assertEquals(expected.toString(), actual.toString());
+    }
+
+
+    @Test
+    public void testEvalListOfSubtreeWithDepthAndMatch() {
+        // given
+        final FileSystem fs = new FileSystem();
+        FileSystemRepl.eval("CREATE fruits/apples/fuji", fs);
+        FileSystemRepl.eval("CREATE fruits/avocados/hass", fs);
+        FileSystemRepl.eval("CREATE fruits/bananas", fs);
+        FileSystemRepl.eval("CREATE vegetables/asparagus", fs);
+
+        // when
+        final String depth = FileSystemRepl.eval("LIST fruits --depth 1", fs);
+        final String match = FileSystemRepl.eval("LIST --match a*", fs);
+        final String both;
+        both = FileSystemRepl.eval("LIST FRUITS --depth 2 --match *s", fs);
+
+        // then
+        Assertions.assertEquals("LIST fruits --depth 1\napples\navocados\nbananas\n",
+                depth);
+        Assertions.assertEquals("LIST --match a*", match);
+        Assertions.assertEquals("LIST FRUITS --depth 2 --match *s\n"
+                + "apples\navocados\n  hass\nbananas\n", both);
+        Assertions.assertEquals("grains does not exist",
+                FileSystemRepl.eval("LIST grains", fs));
+        Assertions.assertEquals("Invalid depth: two",
+                FileSystemRepl.eval("LIST fruits --depth two", fs));
+    }
+
+    @Test
+    public void testEvalCopyCommand() {
+        // given
+        final FileSystem fs = new FileSystem();
+        FileSystemRepl.eval("CREATE fruits/apples", fs);
+        FileSystemRepl.eval("CREATE grains", fs);
+
+        // when
+        final String result = FileSystemRepl.eval("copy fruits grains", fs);
+        FileSystemRepl.eval("DELETE fruits/apples", fs);
+
+        // then
+        Assertions.assertEquals("COPY fruits grains", result);
+        Assertions.assertEquals("LIST\nfruits\ngrains\n  fruits\n    apples\n",
+                FileSystemRepl.eval("LIST", fs));
+    }
 }
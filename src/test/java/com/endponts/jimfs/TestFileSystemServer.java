@@ -0,0 +1,198 @@
+package com.endponts.jimfs;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+public class TestFileSystemServer {
+
+    @Test
+    public void testPipelinedCommandsFromSeveralClients() throws Exception {
+        // given
+        final FileSystem fs = new FileSystem(true);
+        final InetSocketAddress any;
+        any = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        try (FileSystemServer server = new FileSystemServer(fs, any)) {
+            final Thread serving = new Thread(server);
+            serving.start();
+            final InetSocketAddress address;
+            address = (InetSocketAddress) server.getLocalAddress();
+
+            try (Socket first = new Socket(address.getAddress(), address.getPort());
+                 Socket second = new Socket(address.getAddress(), address.getPort())) {
+                final BufferedReader firstIn = reader(first);
+                final BufferedReader secondIn = reader(second);
+
+                // when
+                send(first, "CREATE fruits/apples\nCREATE fruits/bananas\n");
+                Assertions.assertEquals("CREATE fruits/apples", firstIn.readLine());
+                Assertions.assertEquals("CREATE fruits/bananas", firstIn.readLine());
+                send(second, "MOVE fruits/bananas fruits/apples\nLIST\nQUIT\n");
+
+                // then
+                Assertions.assertEquals("MOVE fruits/bananas fruits/apples",
+                        secondIn.readLine());
+                Assertions.assertEquals("LIST", secondIn.readLine());
+                Assertions.assertEquals("fruits", secondIn.readLine());
+                Assertions.assertEquals("  apples", secondIn.readLine());
+                Assertions.assertEquals("    bananas", secondIn.readLine());
+                Assertions.assertEquals("", secondIn.readLine());
+                Assertions.assertEquals("bye.", secondIn.readLine());
+                Assertions.assertNull(secondIn.readLine());
+                send(first, "DELETE fruits\n");
+                Assertions.assertEquals("DELETE fruits", firstIn.readLine());
+                Assertions.assertTrue(fs.isEmpty());
+            }
+            server.close();
+            serving.join(10_000);
+            Assertions.assertFalse(serving.isAlive());
+        }
+    }
+
+    @Test
+    public void testLargeListDoesNotHoldUpOtherClients() throws Exception {
+        // given
+        final FileSystem fs = new FileSystem(true);
+        final int dirs = 200_000;
+        for (int i = 0; i < dirs; i++) {
+            fs.mkdir("big/d" + i);
+        }
+        final InetSocketAddress any;
+        any = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        try (FileSystemServer server = new FileSystemServer(fs, any, 2)) {
+            final Thread serving = new Thread(server);
+            serving.start();
+            final InetSocketAddress address;
+            address = (InetSocketAddress) server.getLocalAddress();
+
+            try (Socket slow = new Socket(address.getAddress(), address.getPort());
+                 Socket other = new Socket(address.getAddress(), address.getPort())) {
+                final BufferedReader slowIn = reader(slow);
+                final BufferedReader otherIn = reader(other);
+
+                // when
+                send(slow, "LIST\nCREATE after\n");
+                send(other, "CREATE fruits\nLIST fruits\n");
+
+                // then
+                Assertions.assertEquals("CREATE fruits", otherIn.readLine());
+                Assertions.assertEquals("LIST fruits", otherIn.readLine());
+                Assertions.assertEquals("LIST", slowIn.readLine());
+                int lines = 0;
+                for (String line = slowIn.readLine(); !line.isEmpty(); line = slowIn.readLine()) {
+                    lines++;
+                }
+                Assertions.assertTrue(lines >= dirs + 1);
+                Assertions.assertEquals("CREATE after", slowIn.readLine());
+            }
+            server.close();
+            serving.join(10_000);
+            Assertions.assertFalse(serving.isAlive());
+        }
+    }
+
+    @Test
+    public void testSlowReadersDoNotHoldUpTheWorkers() throws Exception {
+        // given
+        final FileSystem fs = new FileSystem(true);
+        final int dirs = 200_000;
+        for (int i = 0; i < dirs; i++) {
+            fs.mkdir("big/a-directory-with-a-rather-long-name-" + i);
+        }
+        final InetSocketAddress any;
+        any = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        try (FileSystemServer server = new FileSystemServer(fs, any, 2)) {
+            final Thread serving = new Thread(server);
+            serving.start();
+            final InetSocketAddress address;
+            address = (InetSocketAddress) server.getLocalAddress();
+
+            final Socket[] slow = new Socket[4];
+            try (Socket other = new Socket()) {
+                for (int i = 0; i < slow.length; i++) {
+                    slow[i] = new Socket();
+                    slow[i].setReceiveBufferSize(4096);
+                    slow[i].connect(address);
+                    send(slow[i], "LIST\nCREATE after" + i + "\n");
+                }
+                other.connect(address);
+                other.setSoTimeout(10_000);
+                final BufferedReader otherIn = reader(other);
+
+                // when
+                Thread.sleep(200);
+                send(other, "CREATE fruits\n");
+
+                // then
+                Assertions.assertEquals("CREATE fruits", otherIn.readLine());
+                final BufferedReader slowIn = reader(slow[0]);
+                Assertions.assertEquals("LIST", slowIn.readLine());
+                int lines = 0;
+                for (String line = slowIn.readLine(); !line.isEmpty(); line = slowIn.readLine()) {
+                    lines++;
+                }
+                Assertions.assertTrue(lines >= dirs + 1);
+                Assertions.assertEquals("CREATE after0", slowIn.readLine());
+            } finally {
+                for (Socket socket : slow) {
+                    if (socket != null) {
+                        socket.close();
+                    }
+                }
+            }
+            server.close();
+            serving.join(10_000);
+            Assertions.assertFalse(serving.isAlive());
+        }
+    }
+
+    @Test
+    public void testLastLineWithoutLineFeedIsEvaluated() throws Exception {
+        // given
+        final FileSystem fs = new FileSystem(true);
+        final InetSocketAddress any;
+        any = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        try (FileSystemServer server = new FileSystemServer(fs, any)) {
+            final Thread serving = new Thread(server);
+            serving.start();
+            final InetSocketAddress address;
+            address = (InetSocketAddress) server.getLocalAddress();
+
+            try (Socket client = new Socket(address.getAddress(), address.getPort())) {
+                final BufferedReader in = reader(client);
+
+                // when
+                send(client, "CREATE fruits\nCREATE vegetables");
+                client.shutdownOutput();
+
+                // then
+                Assertions.assertEquals("CREATE fruits", in.readLine());
+                Assertions.assertEquals("CREATE vegetables", in.readLine());
+                Assertions.assertNull(in.readLine());
+                Assertions.assertEquals("fruits\nvegetables\n", fs.ls());
+            }
+            server.close();
+            serving.join(10_000);
+            Assertions.assertFalse(serving.isAlive());
+        }
+    }
+
+    private static BufferedReader reader(final Socket socket) throws Exception {
+        return new BufferedReader(new InputStreamReader(
+                socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static void send(final Socket socket, final String lines)
+            throws Exception {
+        final OutputStream out = socket.getOutputStream();
+        out.write(lines.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+}
@@ -0,0 +1,66 @@
+package com.endponts.jimfs;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TestJimPath {
+
+    @Test
+    public void testParseMatchesSplit() {
+        // given
+        final String[] inputs = {"", "/", "//", "a", "a/", "/a", "a//b", "a/b/c", "a/b//", " a/b c", "a:b/"};
+
+        for (String input : inputs) {
+            // when
+            final JimPath path = JimPath.parse(input);
+
+            // then
+            final String[] expected = input.split("/");
+            Assertions.assertEquals(expected.length, path.length(), input);
+            for (int i = 0; i < expected.length; i++) {
+                Assertions.assertEquals(expected[i], path.getName(i), input);
+            }
+            Assertions.assertEquals(input, path.toString());
+        }
+    }
+
+    @Test
+    public void testOfCachesPathsAndInternsNames() {
+        // given
+        final String input = "fruits/Apples";
+
+        // when
+        final JimPath first = JimPath.of(input);
+        final JimPath second = JimPath.of(new String(input));
+        final JimPath other = JimPath.parse("fruits/apples");
+
+        // then
+        Assertions.assertSame(first, second);
+        Assertions.assertSame(first.getName(0), other.getName(0));
+        Assertions.assertSame(first.getKey(1), other.getKey(1));
+        Assertions.assertEquals("apples", first.getKey(1));
+    }
+
+    @Test
+    public void testFileSystemAcceptsParsedPaths() {
+        // given
+        final JimPath fruitsApples = JimPath.of("fruits/apples");
+        final JimPath grains = JimPath.of("grains");
+        final JimPath invalid = JimPath.of("fru its");
+
+        // when
+        final FileSystem fileSystem = new FileSystem();
+        fileSystem.mkdir(fruitsApples);
+        fileSystem.mkdir(grains);
+        fileSystem.mv(fruitsApples, grains);
+        final String invalidMessage = fileSystem.mkdir(invalid).getLeft().getMessage();
+        final String invalidAgainMessage = fileSystem.mkdir(invalid).getLeft().getMessage();
+
+        // then
+        Assertions.assertEquals("fruits\ngrains\n  apples\n", fileSystem.ls());
+        Assertions.assertEquals("Invalid directory name(s): [fru its]", invalidMessage);
+        Assertions.assertEquals(invalidMessage, invalidAgainMessage);
+        Assertions.assertTrue(fileSystem.rm(JimPath.of("grains/apples")).isRight());
+        Assertions.assertEquals("fruits\ngrains\n", fileSystem.ls());
+    }
+}
@@ -0,0 +1,51 @@
+package com.endponts.jimfs;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TestNameValidator {
+
+    @Test
+    public void testDefaultMatchesContains() {
+        // given
+        final String[] names = {"", "fruits", "fru its", "a:b", " ", ":", "grains", "\u00e9:"};
+
+        for (String name : names) {
+            // when
+            final boolean valid = NameValidator.DEFAULT.isValid(name);
+
+            // then
+            Assertions.assertEquals(!name.contains(" ") && !name.contains(":"), valid, name);
+        }
+    }
+
+    @Test
+    public void testGetInvalidNamesKeepsOrderAndSharesEmptyResult() {
+        // given
+        final NameValidator validator = new NameValidator("*\u00e9");
+
+        // when
+        final String[] invalid = validator.getInvalidNames(new String[]{"a*", "b", "caf\u00e9", "c d"});
+        final String[] none = validator.getInvalidNames(new String[]{"a", "b"});
+
+        // then
+        Assertions.assertArrayEquals(new String[]{"a*", "caf\u00e9"}, invalid);
+        Assertions.assertEquals(0, none.length);
+        Assertions.assertSame(none, validator.getInvalidNames(new String[]{"c"}));
+        Assertions.assertArrayEquals(new String[]{"*", "\u00e9"}, validator.getInvalidChars());
+    }
+
+    @Test
+    public void testFileSystemUsesConfiguredValidator() {
+        // given
+        final FileSystem fileSystem = new FileSystem(false, new NameValidator("*"));
+
+        // when
+        final boolean spaced = fileSystem.mkdir("fru its").isRight();
+        final String error = fileSystem.mkdir("fruits/a*").getLeft().getMessage();
+
+        // then
+        Assertions.assertTrue(spaced);
+        Assertions.assertEquals("Invalid directory name(s): [a*]", error);
+    }
+}
@@ -0,0 +1,144 @@
+package com.endponts.jimfs;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class TestPersistentFileSystem {
+
+    @Test
+    public void testEvalMatchesFileSystem() {
+        // given
+        final String[] inputs = {
+                "CREATE fruits", "CREATE vegetables", "CREATE grains",
+                "CREATE fruits/apples", "CREATE fruits/apples/fuji", "LIST",
+                "CREATE grains/squash", "MOVE grains/squash vegetables",
+                "CREATE foods", "MOVE grains foods", "MOVE fruits foods",
+                "MOVE vegetables foods", "LIST", "DELETE fruits/apples",
+                "DELETE foods/fruits/apples", "CREATE fru its", "LIST"
+        };
+
+        // when
+        final FileSystem fs = new FileSystem();
+        final PersistentFileSystem pfs = new PersistentFileSystem();
+        final List<String> expected = new ArrayList<>();
+        final List<String> actual = new ArrayList<>();
+        for (String input : inputs) {
+            expected.add(FileSystemRepl.eval(input, fs));
+            actual.add(FileSystemRepl.eval(input, pfs));
+        }
+
+        // then
+        Assertions.assertIterableEquals(expected, actual);
+    }
+
+    @Test
+    public void testSnapshotIsNotAffectedByLaterWrites() {
+        // given
+        final PersistentFileSystem pfs = new PersistentFileSystem();
+        pfs.mkdir("fruits/apples");
+
+        // when
+        final PersistentDirectory snapshot = pfs.snapshot();
+        pfs.mkdir("fruits/pears");
+        pfs.rm("fruits/apples");
+
+        // then
+        final String snapshotExpected = """
+                fruits
+                  apples
+                """;
+        final String currentExpected = """
+                fruits
+                  pears
+                """;
+        Assertions.assertEquals(snapshotExpected, snapshot.ls());
+        Assertions.assertEquals(currentExpected, pfs.ls());
+        Assertions.assertNotNull(snapshot.findChild("FRUITS").findChild("apples"));
+        Assertions.assertTrue(pfs.findDirectory("fruits/apples").isLeft());
+    }
+
+    @Test
+    public void testMoveIntoOwnDescendantIsRejected() {
+        // given
+        final PersistentFileSystem pfs = new PersistentFileSystem();
+        pfs.mkdir("fruits/apples");
+
+        // when
+        final String result = FileSystemRepl.eval("MOVE fruits fruits/apples", pfs);
+
+        // then
+        final String expected = "Cannot move [fruits] to [fruits/apples] - destination is inside the source";
+        Assertions.assertEquals(expected, result);
+        Assertions.assertEquals("fruits\n  apples\n", pfs.ls());
+    }
+
+    @Test
+    public void testConcurrentWritersAreNotLost() throws Exception {
+        // given
+        final int threads = 8;
+        final int dirsPerThread = 200;
+
+        // when
+        final PersistentFileSystem pfs = new PersistentFileSystem();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < dirsPerThread; i++) {
+                    pfs.mkdir("shared/t" + thread + "d" + i);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // then
+        final String[] lines = pfs.ls().split("\n");
+        Assertions.assertEquals(1 + threads * dirsPerThread, lines.length);
+    }
+
+    @Test
+    public void testLsOfDeepTree() throws Exception {
+        // given
+        final int depth = 100_000;
+        final StringBuilder path = new StringBuilder("d0");
+        for (int i = 1; i < depth; i++) {
+            path.append("/d").append(i);
+        }
+        final PersistentFileSystem pfs = new PersistentFileSystem();
+        pfs.mkdir(path.toString());
+        final long[] lines = new long[1];
+        final Appendable counter = new Appendable() {
+            @Override
+            public Appendable append(final CharSequence csq) {
+                return this;
+            }
+
+            @Override
+            public Appendable append(final CharSequence csq, final int start, final int end) {
+                return this;
+            }
+
+            @Override
+            public Appendable append(final char c) {
+                lines[0] += c == '\n' ? 1 : 0;
+                return this;
+            }
+        };
+
+        // when
+        pfs.ls(counter);
+
+        // then
+        Assertions.assertEquals(depth, lines[0]);
+    }
+}
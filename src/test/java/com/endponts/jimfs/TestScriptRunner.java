@@ -0,0 +1,70 @@
+package com.endponts.jimfs;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+public class TestScriptRunner {
+
+    private static final String[] SCRIPT = {
+            "CREATE fruits/apples/fuji",
+            "create fruits/Bananas",
+            "  CrEaTe   vegetables  ",
+            "CREATE fru its",
+            "CREATE",
+            "LIST",
+            "list fruits --depth 1",
+            "MOVE fruits/bananas vegetables",
+            "MOVE  fruits/apples  grains extra",
+            "MOVE fruits",
+            "move",
+            "DELETE fruits/apples",
+            "DELETE vegetables/bananas",
+            "delete",
+            "",
+            "HELP",
+            "JUMP fruits",
+            "CREATE\tfruits",
+            "LIST   "
+    };
+
+    @Test
+    public void testRunMatchesEvalTo() throws IOException {
+        // given
+        final DirectoryTree evalFs = new FileSystem();
+        final StringBuilder expected = new StringBuilder();
+        for (String line : SCRIPT) {
+            FileSystemRepl.evalTo(line, evalFs, expected);
+        }
+
+        // when
+        final StringWriter out = new StringWriter();
+        final ScriptRunner runner = new ScriptRunner(new FileSystem(), out);
+        final long count = runner.run(
+                new StringReader(String.join("\n", SCRIPT) + "\n"));
+
+        // then
+        Assertions.assertEquals(expected.toString(), out.toString());
+        Assertions.assertEquals(SCRIPT.length, count);
+    }
+
+    @Test
+    public void testRunStopsAtQuit() throws IOException {
+        // given
+        final FileSystem fs = new FileSystem();
+        final StringWriter out = new StringWriter();
+
+        // when
+        final long count = new ScriptRunner(fs, out).run(
+                new StringReader("CREATE a\nquit\nCREATE b\n"));
+
+        // then
+        Assertions.assertEquals(1, count);
+        Assertions.assertEquals("a\n", fs.ls());
+        Assertions.assertEquals("CREATE a" + System.lineSeparator(),
+                out.toString());
+    }
+}